@@ -0,0 +1,167 @@
+package eclipstyle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persistent Bloom filter over strings, stamped with the time it was started. Used to remember
+ * which workspaces received which preferences without keeping a list of them.
+ */
+final class BloomFilter
+{
+    private static final int MAGIC = 0x45504246;
+
+    private final long created;
+    private final int hashes;
+    private final long[] bits;
+
+    private BloomFilter(long created, int hashes, long[] bits)
+    {
+        this.created = created;
+        this.hashes = hashes;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates an empty filter sized for a number of elements and a false positive rate.
+     *
+     * @param created creation time of the filter, in milliseconds
+     * @param expected expected number of elements
+     * @param fpp false positive probability
+     * @return empty filter
+     */
+    static BloomFilter create(long created, int expected, double fpp)
+    {
+        double n = Math.max(expected, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+        long hashes = Math.round(words * 64 / n * Math.log(2));
+        return new BloomFilter(created, (int) Math.max(1, Math.min(hashes, 30)), new long[words]);
+    }
+
+    /**
+     * @return creation time of the filter, in milliseconds
+     */
+    long getCreated()
+    {
+        return created;
+    }
+
+    /**
+     * Adds an element to the filter.
+     *
+     * @param element element
+     */
+    synchronized void add(String element)
+    {
+        long h1 = hash(element);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++)
+        {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Tells whether an element may have been added to the filter.
+     *
+     * @param element element
+     * @return false if the element was definitely not added
+     */
+    synchronized boolean mightContain(String element)
+    {
+        long h1 = hash(element);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++)
+        {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads a filter from a file.
+     *
+     * @param file filter file
+     * @return filter, or null if the file does not exist
+     * @throws IOException upon failure to read the file
+     */
+    static BloomFilter load(Path file) throws IOException
+    {
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("Not a skip filter: " + file);
+            }
+            long created = in.readLong();
+            int hashes = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++)
+            {
+                bits[i] = in.readLong();
+            }
+            return new BloomFilter(created, hashes, bits);
+        }
+    }
+
+    /**
+     * Writes the filter to a file, replacing it atomically.
+     *
+     * @param file filter file
+     * @throws IOException upon failure to write the file
+     */
+    synchronized void save(Path file) throws IOException
+    {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeLong(created);
+            out.writeInt(hashes);
+            out.writeInt(bits.length);
+            for (long word : bits)
+            {
+                out.writeLong(word);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long hash(String element)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : element.getBytes(StandardCharsets.UTF_8))
+        {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
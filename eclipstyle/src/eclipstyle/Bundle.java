@@ -0,0 +1,253 @@
+package eclipstyle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Single-archive bundle of preferences files, written and read as a stream so that it can be
+ * piped through stdin/stdout without touching the disk.
+ */
+final class Bundle implements Closeable
+{
+    /** Supported archive formats. */
+    enum Format
+    {
+        zip, tar
+    }
+
+    private static final int TAR_BLOCK = 512;
+
+    private final Format format;
+    private final OutputStream out;
+
+    private Bundle(Format format, OutputStream out)
+    {
+        this.format = format;
+        this.out = out;
+    }
+
+    /**
+     * Starts a new bundle on an output stream.
+     *
+     * @param format archive format
+     * @param out output stream, closed along with the bundle
+     * @return bundle to add entries to
+     */
+    static Bundle create(Format format, OutputStream out)
+    {
+        return new Bundle(format, format == Format.zip ? new ZipOutputStream(out) : out);
+    }
+
+    /**
+     * Appends an entry to the bundle.
+     *
+     * @param name entry name, '/' separated
+     * @param data entry contents
+     * @throws IOException upon failure to write the entry
+     */
+    void add(String name, byte[] data) throws IOException
+    {
+        if (format == Format.zip)
+        {
+            ZipOutputStream zip = (ZipOutputStream) out;
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(data);
+            zip.closeEntry();
+            return;
+        }
+        out.write(tarHeader(name, data.length));
+        out.write(data);
+        int pad = (TAR_BLOCK - data.length % TAR_BLOCK) % TAR_BLOCK;
+        out.write(new byte[pad]);
+    }
+
+    /**
+     * Writes the archive trailer and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (format == Format.tar)
+        {
+            out.write(new byte[2 * TAR_BLOCK]);
+        }
+        out.close();
+    }
+
+    /**
+     * Reads the requested preferences files from a bundle stream. Entries may sit at the root of
+     * the archive or under a single workspace directory; compressed entries are inflated.
+     *
+     * @param format archive format
+     * @param in bundle input stream
+     * @param prefsFiles preferences files to extract
+     * @return contents of the preferences files found, keyed by name
+     * @throws IOException upon read failure, or if the bundle holds more than one copy of a file
+     */
+    static Map<String, byte[]> read(Format format, InputStream in, Predicate<String> prefsFiles)
+        throws IOException
+    {
+        Map<String, byte[]> prefs = new HashMap<>();
+        if (format == Format.zip)
+        {
+            ZipInputStream zip = new ZipInputStream(in);
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null;)
+            {
+                if (!entry.isDirectory())
+                {
+                    collect(prefs, prefsFiles, entry.getName(), readFully(zip, -1));
+                }
+            }
+            return prefs;
+        }
+        byte[] header = new byte[TAR_BLOCK];
+        while (readBlock(in, header) && header[0] != 0)
+        {
+            String name = tarString(header, 345, 155);
+            name = (name.isEmpty() ? "" : name + "/") + tarString(header, 0, 100);
+            long size = Long.parseLong(tarString(header, 124, 12).trim(), 8);
+            byte[] data = readFully(in, size);
+            long pad = (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+            readFully(in, pad);
+            if (header[156] == '0' || header[156] == 0)
+            {
+                collect(prefs, prefsFiles, name, data);
+            }
+        }
+        return prefs;
+    }
+
+    private static void collect(Map<String, byte[]> prefs, Predicate<String> prefsFiles,
+        String entryName, byte[] data) throws IOException
+    {
+        String name = entryName.substring(entryName.lastIndexOf('/') + 1);
+        boolean compressed = name.endsWith(PrefsCodec.EXTENSION);
+        if (compressed)
+        {
+            name = name.substring(0, name.length() - PrefsCodec.EXTENSION.length());
+        }
+        if (!prefsFiles.test(name))
+        {
+            return;
+        }
+        if (compressed)
+        {
+            data = readFully(PrefsCodec.decompress(new ByteArrayInputStream(data)), -1);
+        }
+        if (prefs.put(name, data) != null)
+        {
+            throw new IOException("Bundle contains more than one " + name);
+        }
+    }
+
+    private static byte[] tarHeader(String name, long size) throws IOException
+    {
+        byte[] header = new byte[TAR_BLOCK];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = 0;
+        if (bytes.length > 100)
+        {
+            split = name.lastIndexOf('/', name.length() - 1);
+            if (split < 0 || bytes.length - split - 1 > 100 || split > 155)
+            {
+                throw new IOException("Entry name too long for tar: " + name);
+            }
+            tarField(header, 345, 155, name.substring(0, split));
+            name = name.substring(split + 1);
+        }
+        tarField(header, 0, 100, name);
+        tarField(header, 100, 8, "0000644");
+        tarField(header, 108, 8, "0000000");
+        tarField(header, 116, 8, "0000000");
+        tarField(header, 124, 12, String.format("%011o", size));
+        tarField(header, 136, 12, String.format("%011o", System.currentTimeMillis() / 1000));
+        header[156] = '0';
+        tarField(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+        for (int i = 148; i < 156; i++)
+        {
+            header[i] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header)
+        {
+            checksum += b & 0xff;
+        }
+        tarField(header, 148, 8, String.format("%06o", checksum));
+        header[154] = 0;
+        return header;
+    }
+
+    private static void tarField(byte[] header, int offset, int length, String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    private static String tarString(byte[] header, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+        {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException
+    {
+        int n = 0;
+        while (n < block.length)
+        {
+            int r = in.read(block, n, block.length - n);
+            if (r < 0)
+            {
+                if (n == 0)
+                {
+                    return false;
+                }
+                throw new IOException("Truncated tar bundle");
+            }
+            n += r;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a number of bytes from a stream, or everything up to the end if {@code size} is
+     * negative.
+     */
+    static byte[] readFully(InputStream in, long size) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size < 0 ? 8192 : (int) size);
+        byte[] buf = new byte[8192];
+        long remaining = size < 0 ? Long.MAX_VALUE : size;
+        while (remaining > 0)
+        {
+            int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (r < 0)
+            {
+                if (size >= 0)
+                {
+                    throw new IOException("Unexpected end of bundle");
+                }
+                break;
+            }
+            out.write(buf, 0, r);
+            remaining -= r;
+        }
+        return out.toByteArray();
+    }
+}
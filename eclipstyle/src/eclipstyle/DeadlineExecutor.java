@@ -0,0 +1,235 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs one task per item (e.g. per workspace), each on its own worker thread and under its own
+ * deadline. A task that misses its deadline is abandoned: its slot is handed to the next task right
+ * away, so that a single hung network mount cannot stall the rest of the run. Abandoned workers
+ * are daemon threads and never keep the JVM alive.
+ *
+ * @param <K> item type
+ */
+final class DeadlineExecutor<K> implements AutoCloseable
+{
+    /** Work to do for one item. */
+    interface Task
+    {
+        void run() throws IOException;
+    }
+
+    private final long timeoutMillis;
+    private final Semaphore slots;
+    private final int parallelism;
+    private final ExecutorService workers;
+    private final ScheduledThreadPoolExecutor watchdog;
+    private final List<K> timedOut = Collections.synchronizedList(new ArrayList<>());
+    private final Consumer<K> onFailure;
+    private final Map<K, IOException> failures =
+        Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * @param parallelism maximum number of tasks in flight
+     * @param timeoutMillis deadline of each task, counted from its start; 0 for none
+     * @param onFailure called with the item of each task that failed or was abandoned after
+     *        missing its deadline, or null
+     */
+    DeadlineExecutor(int parallelism, long timeoutMillis, Consumer<K> onFailure)
+    {
+        this.onFailure = onFailure;
+        this.parallelism = Math.max(1, parallelism);
+        this.timeoutMillis = timeoutMillis;
+        this.slots = new Semaphore(this.parallelism);
+        this.workers = Executors.newCachedThreadPool(daemon("eclipstyle-worker"));
+        this.watchdog = new ScheduledThreadPoolExecutor(1, daemon("eclipstyle-watchdog"));
+        this.watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts a task as soon as a slot is free, along with a follow-up that runs once the task has
+     * completed in time. The follow-up is not subject to the deadline, but holds on to the slot
+     * (e.g. while handing the item on to a busy pipeline stage).
+     *
+     * @param item item the task works on
+     * @param task the task
+     * @param then follow-up, or null
+     * @throws IOException if interrupted while waiting for a slot
+     */
+    void submit(K item, Task task, Task then) throws IOException
+    {
+        try
+        {
+            slots.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+        Future<?> future = workers.submit(() -> {
+            IOException failure = null;
+            boolean completed = false;
+            try
+            {
+                task.run();
+                completed = true;
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            catch (RuntimeException e)
+            {
+                failure = new IOException(e.toString(), e);
+            }
+            finally
+            {
+                ScheduledFuture<?> deadline = timer.get();
+                if (deadline != null)
+                {
+                    deadline.cancel(false);
+                }
+                // whoever flips done first (this worker or the watchdog) reports the outcome
+                if (done.compareAndSet(false, true))
+                {
+                    try
+                    {
+                        if (failure != null)
+                        {
+                            failed(item, failure);
+                        }
+                        else if (completed && then != null)
+                        {
+                            then.run();
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        failed(item, e);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        failed(item, new IOException(e.toString(), e));
+                    }
+                    finally
+                    {
+                        slots.release();
+                    }
+                }
+            }
+        });
+        if (timeoutMillis > 0)
+        {
+            timer.set(watchdog.schedule(() -> {
+                if (done.compareAndSet(false, true))
+                {
+                    future.cancel(true);
+                    timedOut.add(item);
+                    try
+                    {
+                        if (onFailure != null)
+                        {
+                            onFailure.accept(item);
+                        }
+                    }
+                    finally
+                    {
+                        slots.release();
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void failed(K item, IOException e)
+    {
+        failures.put(item, e);
+        if (onFailure != null)
+        {
+            onFailure.accept(item);
+        }
+    }
+
+    /**
+     * Waits until every submitted task has either completed or been abandoned.
+     *
+     * @throws IOException if interrupted while waiting
+     */
+    void await() throws IOException
+    {
+        try
+        {
+            slots.acquire(parallelism);
+            slots.release(parallelism);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    /**
+     * @return items whose task was abandoned after missing its deadline
+     */
+    List<K> getTimedOut()
+    {
+        synchronized (timedOut)
+        {
+            return new ArrayList<>(timedOut);
+        }
+    }
+
+    /**
+     * @return items whose task failed, with the failure
+     */
+    Map<K, IOException> getFailures()
+    {
+        synchronized (failures)
+        {
+            return new LinkedHashMap<>(failures);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        workers.shutdown();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Creates a factory of daemon threads.
+     *
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    static ThreadFactory daemon(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,17 +1,47 @@
 package eclipstyle;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 @Command(
@@ -23,114 +53,1895 @@ public class Eclipstyle implements Callable<Void>
     private static final String UI_EDITORS_PREFS_FILENAME = "org.eclipse.ui.editors.prefs";
     private static final String JDT_CORE_PREFS_FILENAME = "org.eclipse.jdt.core.prefs";
     private static final String JDT_UI_PREFS_FILENAME = "org.eclipse.jdt.ui.prefs";
+    private static final List<String> PREFS_FILENAMES = Arrays.asList(
+        UI_WBENCH_PREFS_FILENAME, UI_EDITORS_PREFS_FILENAME,
+        JDT_CORE_PREFS_FILENAME, JDT_UI_PREFS_FILENAME);
+    private static final List<String> PROJECT_PREFS_FILENAMES = Arrays.asList(
+        JDT_CORE_PREFS_FILENAME, JDT_UI_PREFS_FILENAME);
+    /**
+     * Keys that make sense per project: code style (formatter, clean up, save actions, imports and
+     * code templates). Compiler settings, classpath variables and editor appearance are not.
+     */
+    private static final List<String> PROJECT_KEY_PREFIXES = Arrays.asList(
+        "eclipse.preferences.version", "org.eclipse.jdt.core.formatter.", "cleanup.",
+        "cleanup_profile", "cleanup_settings_version", "sp_cleanup.", "formatter_profile",
+        "formatter_settings_version", "editor_save_participant_", "org.eclipse.jdt.ui.importorder",
+        "org.eclipse.jdt.ui.ondemandthreshold", "org.eclipse.jdt.ui.staticondemandthreshold",
+        "org.eclipse.jdt.ui.ignorelowercasenames", "org.eclipse.jdt.ui.text.custom_code_templates");
+    private static final String PROJECT_SETTINGS_DIR = ".settings";
     private static final String PREFS_SUB_DIR =
         "/.metadata/.plugins/org.eclipse.core.runtime/.settings/";
+    private static final String STDIO = "-";
+    private static final double SKIP_FILTER_FPP = 1e-4;
+    private static final long LOCK_PROBE_TIMEOUT_MILLIS = 2000;
+    private static final long LOCK_RETRY_INTERVAL_MILLIS = 5000;
+    private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+    private static final int HISTOGRAM_VALUES = 10;
+    private static final Pattern QUOTED_ARG = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+    /** Options that apply to a whole batch run, hence not to a single manifest entry. */
+    private static final String[] RUN_OPTIONS =
+        {"--output", "--error-log", "--retries", "--retry-budget", "--progress", "--jobs"};
 
-    @Parameters(index = "0", description = "Program command (clone/export).")
+    @Parameters(index = "0",
+        description = "Program command "
+            + "(clone/clone-projects/export/analyze/snapshot-fleet/query/batch).")
     private String command;
 
-    @Parameters(index = "1", description = "Source path.")
+    @Parameters(index = "1",
+        description = "Source path (batch: manifest file; query: fleet snapshot).")
     private Path from;
 
-    @Parameters(index = "2", description = "Destionation path.")
+    @Parameters(index = "2", arity = "0..1",
+        description = "Destionation path (analyze: optional, for the consensus profile; "
+            + "query: key=value or key!=value).")
+    private String destination;
+
+    /** The destination as a path, for the commands other than query. */
     private Path to;
 
+    @Option(names = "--compress", description = "Compress exported preferences files.")
+    private boolean compress;
+
+    @Option(names = "--bundle",
+        description = "Read/write a single archive (zip/tar); '-' means stdin/stdout.")
+    private Bundle.Format bundle;
+
+    @Option(names = "--files", split = ",", paramLabel = "<name|glob>",
+        description = "Preferences files to copy (default: the four code style & editor files).")
+    private List<String> files;
+
+    @Option(names = "--threads",
+        description = "Number of workspaces updated concurrently (default: ${DEFAULT-VALUE}).")
+    private int threads = 8;
+
+    @Option(names = "--timeout", paramLabel = "<seconds>",
+        description = "Deadline for each step of updating a single workspace; 0 for none "
+            + "(default: ${DEFAULT-VALUE}).")
+    private long timeout = 60;
+
+    @Option(names = "--index", paramLabel = "<file>",
+        description = "Workspace index that lets clone skip unchanged directories and workspaces.")
+    private Path index;
+
+    @Option(names = "--skip-filter", paramLabel = "<file>",
+        description = "Filter of workspaces updated by the last clone, to skip them without I/O.")
+    private Path skipFilter;
+
+    @Option(names = "--lock-wait", paramLabel = "<seconds>",
+        description = "How long to retry workspaces held open by a running Eclipse "
+            + "(default: ${DEFAULT-VALUE}, i.e. retry once at the end of the run).")
+    private long lockWait;
+
+    @Option(names = "--retries",
+        description = "Retries of a file operation upon transient I/O errors "
+            + "(default: ${DEFAULT-VALUE}).")
+    private int retries = 3;
+
+    @Option(names = "--retry-budget",
+        description = "Retries allowed in total across a run (default: ${DEFAULT-VALUE}).")
+    private int retryBudget = 1000;
+
+    @Option(names = "--error-log", paramLabel = "<file>",
+        description = "Write every error as a JSON line to this file.")
+    private Path errorLog;
+
+    @Option(names = "--output",
+        description = "Format of per-workspace results (text/ndjson, default: ${DEFAULT-VALUE}).")
+    private Results.Format output = Results.Format.text;
+
+    @Option(names = "--progress",
+        description = "Show a progress line while cloning, if the console is a terminal.")
+    private boolean showProgress;
+
+    @Option(names = "--plan",
+        description = "Only report which workspaces and files clone would change, and how long "
+            + "it would take; writes nothing.")
+    private boolean planOnly;
+
+    @Option(names = "--stats",
+        description = "Print throughput and queue depth of each stage of a clone run.")
+    private boolean showStats;
+
+    @Option(names = "--layer", paramLabel = "<source>",
+        description = "Source stacked on top of the previous ones, whose keys win (repeatable).")
+    private List<Path> layers;
+
+    @Option(names = "--rules", paramLabel = "<file>",
+        description = "Rules selecting the source of each workspace by path; workspaces matching "
+            + "no rule get the source argument.")
+    private Path rulesFile;
+
+    @Option(names = "--jobs",
+        description = "Number of batch commands run concurrently (default: ${DEFAULT-VALUE}).")
+    private int jobs = 4;
+
+    private PrefsFileSet prefsFiles;
+    private ErrorReport errors;
+    private Results results;
+    private Retry retry;
+    private ExecutorService executor;
+    private Map<String, CompletableFuture<Map<String, byte[]>>> sourceCache =
+        new ConcurrentHashMap<>();
+    private Map<String, Map<String, byte[]>> overlayCache = new ConcurrentHashMap<>();
+
+    /**
+     * Locates a preferences file within a workspace (or an arbitrary directory). A compressed
+     * export of the file is picked up as well.
+     * 
+     * @param source source workspace/directory
+     * @param prefsName name of the preferences file
+     * @return path of the preferences file, or null if there is none
+     */
+    private static Path locatePrefs(Path source, String prefsName)
+    {
+        Path[] candidates = {
+            source.resolve(prefsName),
+            source.resolve(prefsName + PrefsCodec.EXTENSION),
+            source.getFileSystem().getPath(source + PREFS_SUB_DIR + prefsName)};
+        for (Path candidate : candidates)
+        {
+            if (Files.exists(candidate))
+            {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
     /**
      * Copies a preferences file from a workspace (or an arbitrary directory) into another workspace.
      * 
      * @param source source workspace/directory
      * @param target target workspace
      * @param prefsName name of the preferences file
+     * @param compress whether to store the target file compressed
      * @throws IOException upon failure to locate the preferences file
      */
-    private static void copyPrefs(Path source, Path target, String prefsName) throws IOException
+    private void copyPrefs(Path source, Path target, String prefsName, boolean compress)
+        throws IOException
     {
-        if (Files.exists(source.resolve(prefsName)))
+        Path prefs = locatePrefs(source, prefsName);
+        if (prefs == null)
+        {
+            errors.report(ErrorReport.Category.MISSING_PREFS, source, prefsName);
+            return;
+        }
+        source = prefs;
+        boolean compressed = source.getFileName().toString().endsWith(PrefsCodec.EXTENSION);
+        if (compressed == compress)
         {
-            source = source.resolve(prefsName);
+            target = target.resolve(compress ? prefsName + PrefsCodec.EXTENSION : prefsName);
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
         }
-        else if (Files.exists(Paths.get(source + PREFS_SUB_DIR + prefsName)))
+        if (compress)
         {
-            source = Paths.get(source + PREFS_SUB_DIR + prefsName);
+            target = target.resolve(prefsName + PrefsCodec.EXTENSION);
+            try (OutputStream out = PrefsCodec.compress(Files.newOutputStream(target)))
+            {
+                Files.copy(source, out);
+            }
         }
         else
         {
-            System.err.println("Could not locate prefs file " + prefsName + " in " + source);
+            target = target.resolve(prefsName);
+            try (InputStream in = PrefsCodec.decompress(Files.newInputStream(source)))
+            {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Writes a preferences file from memory into a workspace (or an arbitrary directory).
+     * 
+     * @param target target workspace/directory
+     * @param prefsName name of the preferences file
+     * @param data contents of the preferences file
+     * @param compress whether to store the target file compressed
+     * @throws IOException upon failure to write the preferences file
+     */
+    private static void writePrefs(Path target, String prefsName, byte[] data, boolean compress)
+        throws IOException
+    {
+        if (!compress)
+        {
+            Files.write(target.resolve(prefsName), data);
             return;
         }
-        target = target.resolve(prefsName);
-        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        target = target.resolve(prefsName + PrefsCodec.EXTENSION);
+        try (OutputStream out = PrefsCodec.compress(Files.newOutputStream(target)))
+        {
+            out.write(data);
+        }
     }
 
     /**
-     * Returns a set of valid Eclipse workspace paths within a parent directory.
+     * Reads a preferences file from a workspace (or an arbitrary directory) into memory.
      * 
-     * @param parentDir parent directory
-     * @return a set of workspace paths
-     * @throws IOException
+     * @param source source workspace/directory
+     * @param prefsName name of the preferences file
+     * @return contents of the preferences file, or null if it could not be located
+     * @throws IOException upon failure to read the preferences file
      */
-    private static Set<Path> getValidWorkspaces(Path parentDir) throws IOException
+    private byte[] readPrefs(Path source, String prefsName) throws IOException
     {
-        try
+        Path prefs = locatePrefs(source, prefsName);
+        if (prefs == null)
+        {
+            errors.report(ErrorReport.Category.MISSING_PREFS, source, prefsName);
+            return null;
+        }
+        if (!prefs.getFileName().toString().endsWith(PrefsCodec.EXTENSION))
         {
-            Set<Path> workspaces = new HashSet<Path>();
-            Set<Path> subDirs = Files.walk(parentDir, 1)
-                .filter(Files::isDirectory)
-                .collect(Collectors.toSet());
-            subDirs.remove(parentDir);
+            return Files.readAllBytes(prefs);
+        }
+        try (InputStream in = PrefsCodec.decompress(Files.newInputStream(prefs)))
+        {
+            return Bundle.readFully(in, -1);
+        }
+    }
 
-            for (Path ws : subDirs)
+    /**
+     * Tells whether an entry of a parent directory is an Eclipse workspace, reporting directories
+     * that are not.
+     * 
+     * @param dir directory
+     * @return true if the directory holds workspace settings
+     */
+    private boolean isWorkspace(Path dir)
+    {
+        if (!Files.isDirectory(Paths.get(dir + PREFS_SUB_DIR)))
+        {
+            if (Files.isDirectory(dir))
             {
-                if (!Files.isDirectory(Paths.get(ws + PREFS_SUB_DIR)))
-                {
-                    System.err.println("Not an Eclipse workspace: " + ws);
-                    continue;
-                } 
-                workspaces.add(ws);
+                errors.report(ErrorReport.Category.NOT_A_WORKSPACE, dir, null);
             }
-            return workspaces;
+            return false;
         }
-        catch (IOException e)
+        return true;
+    }
+
+    /**
+     * Lists the entries of a parent directory, without stat'ing them: a stat of an entry that
+     * is a hung mount would hang the listing.
+     * 
+     * @param parentDir parent directory
+     * @return a registry of the entries
+     * @throws IOException upon failure to list the parent directory
+     */
+    private static WorkspaceRegistry listEntries(Path parentDir) throws IOException
+    {
+        WorkspaceRegistry.Builder entries = new WorkspaceRegistry.Builder();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(parentDir))
+        {
+            stream.forEach(entries::add);
+            return entries.build();
+        }
+        catch (IOException | DirectoryIteratorException e)
         {
             throw new IOException(
                 "Failed to retrieve workspaces in " + parentDir + ": " + e.getMessage());
         }
     }
 
-    @Override
-    public Void call()
+    /**
+     * Returns the valid Eclipse workspace paths within a parent directory. The entries of the
+     * parent are checked in parallel, each under the deadline; entries that miss it are reported
+     * and left out.
+     * 
+     * @param parentDir parent directory
+     * @return a registry of workspace paths
+     * @throws IOException upon failure to list the parent directory
+     */
+    private WorkspaceRegistry getValidWorkspaces(Path parentDir) throws IOException
     {
-        try
+        WorkspaceRegistry.Builder workspaces = new WorkspaceRegistry.Builder();
+        try (DeadlineExecutor<Path> pool = new DeadlineExecutor<>(threads, timeout * 1000, null))
+        {
+            for (Path dir : listEntries(parentDir))
+            {
+                AtomicBoolean workspace = new AtomicBoolean();
+                pool.submit(dir, () -> workspace.set(isWorkspace(dir)), () -> {
+                    if (workspace.get())
+                    {
+                        workspaces.add(dir);
+                    }
+                });
+            }
+            pool.await();
+            for (Path dir : pool.getTimedOut())
+            {
+                errors.report(ErrorReport.Category.TIMED_OUT, dir, null);
+            }
+        }
+        return workspaces.build();
+    }
+
+    /**
+     * Finds the selected preferences files within a workspace (or an arbitrary directory).
+     * 
+     * @param source source workspace/directory
+     * @return names of the preferences files present
+     * @throws IOException upon failure to list the source
+     */
+    private Set<String> findPrefs(Path source) throws IOException
+    {
+        Set<String> found = new LinkedHashSet<>();
+        for (String prefsName : prefsFiles.getNames())
+        {
+            if (locatePrefs(source, prefsName) != null)
+            {
+                found.add(prefsName);
+            }
+        }
+        found.addAll(prefsFiles.find(
+            source, source.getFileSystem().getPath(source + PREFS_SUB_DIR)));
+        return found;
+    }
+
+    /**
+     * Reads the selected preferences files from a workspace (or an arbitrary directory).
+     * 
+     * @param source source workspace/directory
+     * @param partial whether the source may lack some of the files (e.g. an overlay)
+     * @return contents of the preferences files, keyed by name
+     * @throws IOException upon failure to read a preferences file
+     */
+    private Map<String, byte[]> readAllPrefs(Path source, boolean partial) throws IOException
+    {
+        Map<String, byte[]> prefs = new LinkedHashMap<>();
+        Set<String> prefsNames = findPrefs(source);
+        if (!partial)
         {
-            if (command.equals("clone"))
+            prefsNames.addAll(prefsFiles.getNames());
+        }
+        for (String prefsName : prefsNames)
+        {
+            byte[] data = readPrefs(source, prefsName);
+            if (data != null)
+            {
+                prefs.put(prefsName, data);
+            }
+        }
+        return prefs;
+    }
+
+    /**
+     * Runs a batch of file operations concurrently and waits for all of them to complete.
+     * 
+     * @param tasks file operations
+     * @throws IOException the first failure among the operations
+     */
+    private void runAll(List<Callable<Void>> tasks) throws IOException
+    {
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        for (Callable<Void> task : tasks)
+        {
+            futures.add(executor.submit(task));
+        }
+        IOException failure = null;
+        for (Future<Void> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
             {
-                Set<Path> workspaces = getValidWorkspaces(to);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Tells whether a path names an Eclipse preference export.
+     * 
+     * @param path source or destination path
+     * @return true for {@code .epf} files
+     */
+    private static boolean isEpf(Path path)
+    {
+        return path.toString().toLowerCase().endsWith(Epf.EXTENSION);
+    }
 
-                for (Path ws : workspaces)
+    /**
+     * Finds the directory holding the preferences within a zip bundle: either the archive root or
+     * its only workspace directory.
+     * 
+     * @param zip zip file system
+     * @return source directory within the archive
+     * @throws IOException if the archive holds preferences of several workspaces
+     */
+    private Path getZipSource(FileSystem zip) throws IOException
+    {
+        Path root = zip.getPath("/");
+        if (!findPrefs(root).isEmpty())
+        {
+            return root;
+        }
+        Path source = root;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory))
+        {
+            for (Path dir : dirs)
+            {
+                if (findPrefs(dir).isEmpty())
+                {
+                    continue;
+                }
+                if (source != root)
                 {
-                    copyPrefs(from, Paths.get(ws + PREFS_SUB_DIR), UI_WBENCH_PREFS_FILENAME);
-                    copyPrefs(from, Paths.get(ws + PREFS_SUB_DIR), UI_EDITORS_PREFS_FILENAME);
-                    copyPrefs(from, Paths.get(ws + PREFS_SUB_DIR), JDT_CORE_PREFS_FILENAME);
-                    copyPrefs(from, Paths.get(ws + PREFS_SUB_DIR), JDT_UI_PREFS_FILENAME);
-                    System.out.println("Successfully updated Workspace preferences: " + ws);
+                    throw new IOException("Bundle contains preferences of more than one workspace");
                 }
+                source = dir;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Loads the source preferences files once, either from a directory/workspace, a bundle or an
+     * Eclipse preference export. Zip files are opened in place through the zip file system, so
+     * that only the preferences entries are inflated. Within a batch, each source is loaded only
+     * once for all the commands that use it.
+     * 
+     * @param source source path
+     * @param partial whether the source may lack some of the files (e.g. an overlay)
+     * @return contents of the source preferences files, keyed by name
+     * @throws IOException upon failure to read the source
+     */
+    private Map<String, byte[]> loadSource(Path source, boolean partial) throws IOException
+    {
+        if (source.toString().equals(STDIO))
+        {
+            return readSource(source, partial);
+        }
+        String key = source.toAbsolutePath().normalize() + "\0" + bundle + "\0"
+            + String.join(",", prefsFiles.getNames()) + "\0" + files + "\0" + partial;
+        CompletableFuture<Map<String, byte[]>> loading = new CompletableFuture<>();
+        CompletableFuture<Map<String, byte[]>> cached = sourceCache.putIfAbsent(key, loading);
+        if (cached == null)
+        {
+            try
+            {
+                loading.complete(readSource(source, partial));
             }
-            else if (command.equals("export"))
+            catch (IOException | RuntimeException e)
             {
-                copyPrefs(from, to, UI_WBENCH_PREFS_FILENAME);
-                copyPrefs(from, to, UI_EDITORS_PREFS_FILENAME);
-                copyPrefs(from, to, JDT_CORE_PREFS_FILENAME);
-                copyPrefs(from, to, JDT_UI_PREFS_FILENAME);
-                System.out.println("Exported preferences of '" + from + "' to '" + to + "'");
+                loading.completeExceptionally(e);
             }
-            else
+            cached = loading;
+        }
+        try
+        {
+            return cached.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
             {
-                System.err.println("Invalid command: " + command);
-            }   
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().toString(), e.getCause());
         }
-        catch (IOException e)
+    }
+
+    /**
+     * Loads the preferences to write: the source, with the {@code --layer} sources stacked on top
+     * of it.
+     * 
+     * @return contents of the preferences files, keyed by name
+     * @throws IOException upon failure to read a source
+     */
+    private Map<String, byte[]> loadProfile() throws IOException
+    {
+        return loadProfile(from, layers);
+    }
+
+    /**
+     * Loads a stack of sources. Stacked {@code .prefs} files are merged key by key, other files
+     * are taken from the topmost layer holding them. The merged files are cached by the digests
+     * of the layers, so that the commands of a batch, or the rules of a clone, sharing a stack
+     * merge it only once.
+     * 
+     * @param source bottom source
+     * @param layers sources stacked on top of it, or null
+     * @return contents of the preferences files, keyed by name
+     * @throws IOException upon failure to read a source
+     */
+    private Map<String, byte[]> loadProfile(Path source, List<Path> layers) throws IOException
+    {
+        Map<String, byte[]> base = loadSource(source, false);
+        if (layers == null || layers.isEmpty())
         {
-            System.err.println(command + " failed: " + e.getMessage());
+            return base;
+        }
+        List<Map<String, byte[]>> stack = new ArrayList<>();
+        stack.add(base);
+        StringBuilder key = new StringBuilder(WorkspaceIndex.digest(base));
+        for (Path layer : layers)
+        {
+            Map<String, byte[]> prefs = loadSource(layer, true);
+            stack.add(prefs);
+            key.append(' ').append(WorkspaceIndex.digest(prefs));
+        }
+        return overlayCache.computeIfAbsent(key.toString(), digests -> compose(stack));
+    }
+
+    /**
+     * Composes a stack of preferences.
+     * 
+     * @param stack contents of the preferences files of each layer, from bottom to top
+     * @return contents of the composed preferences files, keyed by name
+     */
+    private static Map<String, byte[]> compose(List<Map<String, byte[]>> stack)
+    {
+        Map<String, List<byte[]>> files = new LinkedHashMap<>();
+        for (Map<String, byte[]> layer : stack)
+        {
+            for (Map.Entry<String, byte[]> entry : layer.entrySet())
+            {
+                files.computeIfAbsent(entry.getKey(), name -> new ArrayList<>())
+                    .add(entry.getValue());
+            }
+        }
+        Map<String, byte[]> composed = new LinkedHashMap<>();
+        for (Map.Entry<String, List<byte[]>> file : files.entrySet())
+        {
+            List<byte[]> versions = file.getValue();
+            composed.put(file.getKey(), versions.size() > 1 && file.getKey().endsWith(".prefs")
+                ? PrefsFile.merge(versions)
+                : versions.get(versions.size() - 1));
+        }
+        return composed;
+    }
+
+    /**
+     * Reads the source preferences files, bypassing the source cache of a batch.
+     * 
+     * @param source source path
+     * @param partial whether the source may lack some of the files (e.g. an overlay)
+     * @return contents of the source preferences files, keyed by name
+     * @throws IOException upon failure to read the source
+     */
+    private Map<String, byte[]> readSource(Path source, boolean partial) throws IOException
+    {
+        Map<String, byte[]> prefs = new LinkedHashMap<>();
+        boolean stdin = source.toString().equals(STDIO);
+        if (isEpf(source))
+        {
+            prefs.putAll(Epf.split(Files.newInputStream(source), prefsFiles));
+            return prefs;
+        }
+        if (!stdin && bundle != Bundle.Format.tar && Files.isRegularFile(source))
+        {
+            try (FileSystem zip = FileSystems.newFileSystem(source, (ClassLoader) null))
+            {
+                prefs.putAll(readAllPrefs(getZipSource(zip), partial));
+            }
+            return prefs;
+        }
+        if (bundle != null)
+        {
+            InputStream in = stdin ? System.in : Files.newInputStream(source);
+            try
+            {
+                prefs.putAll(Bundle.read(bundle, in, prefsFiles));
+            }
+            finally
+            {
+                in.close();
+            }
+            for (String prefsName : prefsFiles.getNames())
+            {
+                if (!prefs.containsKey(prefsName) && !partial)
+                {
+                    errors.report(ErrorReport.Category.MISSING_PREFS, source, prefsName);
+                }
+            }
+            return prefs;
+        }
+        return readAllPrefs(source, partial);
+    }
+
+    /**
+     * Update of a single workspace, as it goes through the stages of a clone run.
+     */
+    private static final class WorkspaceUpdate
+    {
+        private final Path ws;
+        private final Path settings;
+        private final long started = System.nanoTime();
+        private final List<String> changed = new ArrayList<>();
+        private String store;
+        private Map<String, byte[]> prefs;
+        private String digest;
+        private long bytes;
+        private volatile boolean proceed;
+
+        WorkspaceUpdate(Path ws)
+        {
+            this.ws = ws;
+            this.settings = Paths.get(ws + PREFS_SUB_DIR);
+        }
+    }
+
+    /** Preferences to write into a workspace, along with their digest. */
+    private static final class Profile
+    {
+        private final Map<String, byte[]> prefs;
+        private final String digest;
+        /** Files with placeholders to resolve for the owner of each target, if any. */
+        private final Map<String, Template> templates = new LinkedHashMap<>();
+        private final Map<String, Profile> rendered = new ConcurrentHashMap<>();
+
+        Profile(Map<String, byte[]> prefs)
+        {
+            this.prefs = prefs;
+            this.digest = WorkspaceIndex.digest(prefs);
+            for (Map.Entry<String, byte[]> entry : prefs.entrySet())
+            {
+                Template template = entry.getKey().endsWith(".prefs")
+                    ? Template.compile(entry.getValue())
+                    : null;
+                if (template != null && template.isResolvable())
+                {
+                    templates.put(entry.getKey(), template);
+                }
+            }
+        }
+
+        private Profile(Map<String, byte[]> prefs, String digest)
+        {
+            this.prefs = prefs;
+            this.digest = digest;
+        }
+
+        /**
+         * Resolves the placeholders of the profile (e.g. {@code ${user.home}}) for the owner of
+         * a target; profiles are rendered once per owner.
+         *
+         * @param target target workspace or project
+         * @return the rendered profile
+         * @throws IOException upon failure to look up the owner, or to resolve a placeholder
+         */
+        Profile forTarget(Path target) throws IOException
+        {
+            if (templates.isEmpty())
+            {
+                return this;
+            }
+            String owner = Files.getOwner(target).getName();
+            Profile profile = rendered.get(owner);
+            if (profile == null)
+            {
+                Map<String, byte[]> resolved = new LinkedHashMap<>(prefs);
+                for (Map.Entry<String, Template> template : templates.entrySet())
+                {
+                    resolved.put(template.getKey(),
+                        template.getValue().render(name -> Template.resolve(name, owner)));
+                }
+                profile = new Profile(resolved, WorkspaceIndex.digest(resolved));
+                rendered.putIfAbsent(owner, profile);
+            }
+            return profile;
+        }
+    }
+
+    /** A pipeline step; returns true to hand the update on to the next stage. */
+    private interface Step
+    {
+        boolean run(WorkspaceUpdate update) throws IOException;
+    }
+
+    /**
+     * State of a single clone run: the source preferences, what is known about the targets, and
+     * the pipeline the workspaces go through:
+     * <ol>
+     * <li>discover: drops entries of the destination that are not workspaces, skips workspaces
+     * held open by a running Eclipse, and picks the profile of the others by the
+     * {@code --rules};</li>
+     * <li>plan: diffs the workspace against the source, skipping it if it is up to date;</li>
+     * <li>write: writes the preferences files that differ;</li>
+     * <li>verify: reads back what was written and records the workspace as up to date.</li>
+     * </ol>
+     * A planning run stops after the plan stage, and estimates the cost of the writes from the
+     * write latency per file store measured by the last clone (kept in the index), or else from
+     * the read latency measured while planning.
+     * Each stage has a bounded queue and a pool of its own, so a slow stage holds back the stages
+     * before it rather than piling up work in memory. The I/O of every stage runs under a deadline
+     * per workspace, down to the first stat of each entry of the destination.
+     * <p>
+     * With a skip filter, a workspace that got the same preferences from the last clone is skipped
+     * after a few stats, as long as neither its settings directory nor its preferences files have
+     * changed since (Eclipse replaces the files when saving them, which touches the directory;
+     * edits made in place only touch the file). Skipped workspaces are carried into the new
+     * filter.
+     */
+    private final class CloneRun implements AutoCloseable
+    {
+        private final List<Profile> profiles;
+        private final Rules rules;
+        private final WorkspaceIndex wsIndex;
+        private final BloomFilter lastRun;
+        private final BloomFilter thisRun;
+        private final Progress progress;
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger planned = new AtomicInteger();
+        private final LongAdder plannedBytes = new LongAdder();
+        private final Map<String, LongAdder> plannedFiles = new ConcurrentHashMap<>();
+        private final StoreLatency reads = new StoreLatency();
+        private final StoreLatency writes = new StoreLatency();
+        private final Queue<Path> deferred = new ConcurrentLinkedQueue<>();
+        private final Map<Path, IOException> failures =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+        private final List<DeadlineExecutor<Path>> pools = new ArrayList<>();
+        private final List<Stage<?>> stages = new ArrayList<>();
+        private final Stage<WorkspaceUpdate> discover;
+
+        /**
+         * @param profiles profile of each rule, followed by the default profile
+         * @param rules rules selecting the profile of each workspace, or null
+         */
+        CloneRun(List<Profile> profiles, Rules rules, WorkspaceIndex wsIndex, BloomFilter lastRun,
+            BloomFilter thisRun, Progress progress)
+        {
+            this.profiles = profiles;
+            this.rules = rules;
+            this.wsIndex = wsIndex;
+            this.lastRun = lastRun;
+            this.thisRun = thisRun;
+            this.progress = progress;
+            Stage<WorkspaceUpdate> verify = stage("verify", this::verify, null);
+            Stage<WorkspaceUpdate> write = stage("write", this::write, verify);
+            Stage<WorkspaceUpdate> plan = stage("plan", this::plan, write);
+            this.discover = stage("discover", this::discover, plan);
+        }
+
+        /**
+         * Creates a stage whose step runs on a pool of its own, under a deadline per workspace.
+         * The stage thread only hands updates to the pool, so it is busy for as long as the
+         * pool is saturated.
+         */
+        private Stage<WorkspaceUpdate> stage(String name, Step step, Stage<WorkspaceUpdate> next)
+        {
+            DeadlineExecutor<Path> pool = new DeadlineExecutor<>(threads, timeout * 1000,
+                ws -> progress.finished(false));
+            pools.add(0, pool);
+            Stage<WorkspaceUpdate> stage = new Stage<>(name, 1, QUEUE_CAPACITY_PER_THREAD * threads,
+                update -> pool.submit(update.ws,
+                    () -> update.proceed = step.run(update),
+                    () -> {
+                        if (update.proceed)
+                        {
+                            next.put(update);
+                        }
+                    }),
+                (update, e) -> failed(update.ws, e));
+            stages.add(0, stage);
+            return stage;
+        }
+
+        /**
+         * Feeds a workspace into the pipeline, waiting for room if the pipeline is full.
+         * 
+         * @param ws workspace path
+         * @throws IOException if interrupted while waiting
+         */
+        void submit(Path ws) throws IOException
+        {
+            progress.started();
+            discover.put(new WorkspaceUpdate(ws));
+        }
+
+        /**
+         * Waits until every workspace fed so far has gone through the pipeline (or fallen out).
+         * 
+         * @throws IOException if interrupted while waiting
+         */
+        void await() throws IOException
+        {
+            for (int i = 0; i < stages.size(); i++)
+            {
+                stages.get(i).awaitIdle();
+                pools.get(i).await();
+            }
+        }
+
+        private boolean discover(WorkspaceUpdate update) throws IOException
+        {
+            Path ws = update.ws;
+            if (!(wsIndex != null ? wsIndex.isWorkspace(ws, Eclipstyle.this::isWorkspace)
+                : isWorkspace(ws)))
+            {
+                progress.dropped();
+                return false;
+            }
+            if (!WorkspaceLock.findLocked(Collections.singleton(ws), LOCK_PROBE_TIMEOUT_MILLIS)
+                .isEmpty())
+            {
+                progress.abandoned();
+                deferred.add(ws);
+                return false;
+            }
+            int rule = rules != null ? rules.match(ws) : -1;
+            Profile profile =
+                profiles.get(rule >= 0 ? rule : profiles.size() - 1).forTarget(ws);
+            update.prefs = profile.prefs;
+            update.digest = profile.digest;
+            return true;
+        }
+
+        /**
+         * Diffs the workspace preferences against the source. Reading the targets is cheaper
+         * than rewriting them, and leaves the settings directory (and so the skip filter entry)
+         * of an up-to-date workspace untouched.
+         */
+        private boolean plan(WorkspaceUpdate update) throws IOException
+        {
+            if (lastRun != null && lastRun.mightContain(key(update))
+                && WorkspaceIndex.stamp(update.settings, update.prefs.keySet())
+                    < lastRun.getCreated())
+            {
+                upToDate(update);
+                return false;
+            }
+            if (wsIndex != null && wsIndex.isCurrent(update.ws, update.digest,
+                WorkspaceIndex.stamp(update.settings, update.prefs.keySet())))
+            {
+                upToDate(update);
+                return false;
+            }
+            update.store = reads.storeOf(update.ws);
+            for (Map.Entry<String, byte[]> entry : update.prefs.entrySet())
+            {
+                byte[] existing;
+                long start = System.nanoTime();
+                try
+                {
+                    Path target = update.settings.resolve(entry.getKey());
+                    existing = retry.call(() -> Files.readAllBytes(target));
+                    reads.record(update.store, System.nanoTime() - start);
+                }
+                catch (NoSuchFileException e)
+                {
+                    existing = null;
+                }
+                if (!Arrays.equals(existing, entry.getValue()))
+                {
+                    update.changed.add(entry.getKey());
+                    update.bytes += entry.getValue().length;
+                }
+            }
+            if (update.changed.isEmpty())
+            {
+                if (wsIndex != null)
+                {
+                    wsIndex.update(update.ws, update.digest,
+                        WorkspaceIndex.stamp(update.settings, update.prefs.keySet()));
+                }
+                upToDate(update);
+                return false;
+            }
+            if (planOnly)
+            {
+                planned.incrementAndGet();
+                plannedBytes.add(update.bytes);
+                plannedFiles.computeIfAbsent(update.store, store -> new LongAdder())
+                    .add(update.changed.size());
+                results.report("Workspace", update.ws, Results.Status.PLANNED, update.changed,
+                    update.prefs.size() - update.changed.size(), update.bytes, update.started,
+                    null);
+                progress.finished(true);
+                return false;
+            }
+            return true;
+        }
+
+        private boolean write(WorkspaceUpdate update) throws IOException
+        {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (String prefsName : update.changed)
+            {
+                tasks.add(() -> {
+                    long start = System.nanoTime();
+                    retry.run(() -> writePrefs(
+                        update.settings, prefsName, update.prefs.get(prefsName), false));
+                    writes.record(update.store, System.nanoTime() - start);
+                    return null;
+                });
+            }
+            runAll(tasks);
+            return true;
+        }
+
+        private boolean verify(WorkspaceUpdate update) throws IOException
+        {
+            for (String prefsName : update.changed)
+            {
+                Path written = update.settings.resolve(prefsName);
+                byte[] actual = retry.call(() -> Files.readAllBytes(written));
+                if (!Arrays.equals(actual, update.prefs.get(prefsName)))
+                {
+                    throw new IOException("Verification failed: " + written);
+                }
+            }
+            if (wsIndex != null)
+            {
+                wsIndex.update(update.ws, update.digest,
+                    WorkspaceIndex.stamp(update.settings, update.prefs.keySet()));
+            }
+            if (thisRun != null)
+            {
+                thisRun.add(key(update));
+            }
+            updated.incrementAndGet();
+            results.report("Workspace", update.ws, Results.Status.UPDATED, update.changed,
+                update.prefs.size() - update.changed.size(), update.bytes, update.started,
+                null);
+            progress.finished(true);
+            return false;
+        }
+
+        private void upToDate(WorkspaceUpdate update)
+        {
+            if (thisRun != null)
+            {
+                thisRun.add(key(update));
+            }
+            current.incrementAndGet();
+            results.report("Workspace", update.ws, Results.Status.CURRENT, 0,
+                update.prefs.size(), 0, update.started, null);
+            progress.finished(true);
+        }
+
+        private String key(WorkspaceUpdate update)
+        {
+            return update.ws.toAbsolutePath() + "\0" + update.digest;
+        }
+
+        private void failed(Path ws, IOException e)
+        {
+            progress.finished(false);
+            failures.put(ws, e);
+        }
+
+        /**
+         * @return workspaces held open by a running Eclipse, in the order they were found;
+         *         removes them from the run, so they can be fed again
+         */
+        List<Path> takeDeferred()
+        {
+            List<Path> taken = new ArrayList<>();
+            for (Path ws; (ws = deferred.poll()) != null;)
+            {
+                taken.add(ws);
+            }
+            return taken;
+        }
+
+        /**
+         * @return workspaces abandoned after missing a deadline
+         */
+        List<Path> getTimedOut()
+        {
+            List<Path> timedOut = new ArrayList<>();
+            for (DeadlineExecutor<Path> pool : pools)
+            {
+                timedOut.addAll(pool.getTimedOut());
+            }
+            return timedOut;
+        }
+
+        /**
+         * @return workspaces that failed, with the failure
+         */
+        Map<Path, IOException> getFailures()
+        {
+            Map<Path, IOException> all;
+            synchronized (failures)
+            {
+                all = new LinkedHashMap<>(failures);
+            }
+            for (DeadlineExecutor<Path> pool : pools)
+            {
+                all.putAll(pool.getFailures());
+            }
+            return all;
+        }
+
+        /**
+         * @return throughput and queue depth of each stage
+         */
+        List<String> getStats()
+        {
+            List<String> stats = new ArrayList<>();
+            for (Stage<?> stage : stages)
+            {
+                stats.add(stage.getStats());
+            }
+            return stats;
+        }
+
+        /**
+         * Estimates how long writing (and verifying) the planned changes would take.
+         * 
+         * @return estimated duration in milliseconds, or -1 if there is no latency to go by
+         */
+        long estimateMillis()
+        {
+            Map<String, Long> readLatencies = reads.getMeans();
+            long nanos = 0;
+            for (Map.Entry<String, LongAdder> files : plannedFiles.entrySet())
+            {
+                Long read = readLatencies.get(files.getKey());
+                long write = wsIndex != null ? wsIndex.getWriteLatency(files.getKey()) : -1;
+                if (read == null && write < 0)
+                {
+                    return -1;
+                }
+                long latency = (read != null ? read : 0) + (write >= 0 ? write : read);
+                nanos += files.getValue().sum() * latency;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(nanos / Math.max(1, threads));
+        }
+
+        /**
+         * Persists the index (with the write latencies measured) and the skip filter of the run.
+         * 
+         * @throws IOException upon failure to write them
+         */
+        void finish() throws IOException
+        {
+            if (wsIndex != null)
+            {
+                wsIndex.updateWriteLatencies(writes.getMeans());
+                wsIndex.save();
+            }
+            if (thisRun != null)
+            {
+                thisRun.save(skipFilter);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            for (Stage<?> stage : stages)
+            {
+                stage.close();
+            }
+            for (DeadlineExecutor<Path> pool : pools)
+            {
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Clones the source preferences into every workspace under the destination path. Workspaces
+     * go through a staged pipeline (see {@link CloneRun}), each under its own deadlines.
+     * Workspaces held open by a running Eclipse are deferred to the end of the run and retried for
+     * up to {@code --lock-wait} seconds, since Eclipse would overwrite their preferences on exit
+     * anyway.
+     * 
+     * @throws IOException upon failure to read the source or write a workspace
+     */
+    private void cloneWorkspaces() throws IOException
+    {
+        long started = System.currentTimeMillis();
+        Rules rules = rulesFile != null ? Rules.load(rulesFile) : null;
+        List<Profile> profiles = new ArrayList<>();
+        if (rules != null)
+        {
+            for (Rules.Rule rule : rules.getRules())
+            {
+                profiles.add(new Profile(loadProfile(rule.getSource(), rule.getLayers())));
+            }
+        }
+        profiles.add(new Profile(loadProfile()));
+        WorkspaceIndex wsIndex = index != null ? WorkspaceIndex.load(index) : null;
+        // entries are only listed here; the discover stage tells workspaces apart
+        WorkspaceRegistry workspaces = wsIndex != null
+            ? wsIndex.getCandidates(to.toAbsolutePath().normalize())
+            : listEntries(to);
+
+        try (Progress progress = new Progress(showProgress, System.err);
+            CloneRun run = new CloneRun(profiles, rules, wsIndex,
+                skipFilter != null ? BloomFilter.load(skipFilter) : null,
+                skipFilter != null && !planOnly
+                    ? BloomFilter.create(started, workspaces.size(), SKIP_FILTER_FPP) : null,
+                progress))
+        {
+            progress.start("workspaces", workspaces.size());
+            for (Path ws : workspaces)
+            {
+                run.submit(ws);
+            }
+            run.await();
+
+            List<Path> deferred = run.takeDeferred();
+            long deadline = System.currentTimeMillis() + lockWait * 1000;
+            while (!deferred.isEmpty() && !planOnly)
+            {
+                for (Path ws : deferred)
+                {
+                    run.submit(ws);
+                }
+                run.await();
+                deferred = run.takeDeferred();
+                long remaining = deadline - System.currentTimeMillis();
+                if (deferred.isEmpty() || remaining <= 0)
+                {
+                    break;
+                }
+                try
+                {
+                    Thread.sleep(Math.min(remaining, LOCK_RETRY_INTERVAL_MILLIS));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            progress.stop();
+            if (!planOnly)
+            {
+                run.finish();
+            }
+
+            List<Path> timedOut = run.getTimedOut();
+            Map<Path, IOException> failures = run.getFailures();
+            for (Path ws : deferred)
+            {
+                errors.report(ErrorReport.Category.IN_USE, ws, null);
+                results.report("Workspace", ws, Results.Status.IN_USE, 0, 0, 0, 0, null);
+            }
+            for (Path ws : timedOut)
+            {
+                errors.report(ErrorReport.Category.TIMED_OUT, ws, null);
+                results.report("Workspace", ws, Results.Status.TIMED_OUT, 0, 0, 0, 0, null);
+            }
+            for (Map.Entry<Path, IOException> failure : failures.entrySet())
+            {
+                String message = failure.getValue().getMessage();
+                errors.report(ErrorReport.Category.FAILED, failure.getKey(), message);
+                results.report("Workspace", failure.getKey(), Results.Status.FAILED, 0, 0, 0, 0,
+                    message);
+            }
+            PrintStream summary = results.getSummaryStream();
+            if (planOnly)
+            {
+                long estimate = run.estimateMillis();
+                summary.println("Would update " + run.planned.get() + " workspaces in '" + to
+                    + "' (" + run.plannedFiles.values().stream().mapToLong(LongAdder::sum).sum()
+                    + " files, " + run.plannedBytes.sum() + " bytes), "
+                    + run.current.get() + " already up to date, " + failures.size() + " failed, "
+                    + timedOut.size() + " timed out, " + deferred.size() + " in use");
+                summary.println("Planned in " + (System.currentTimeMillis() - started)
+                    + " ms, estimated clone time: "
+                    + (estimate >= 0 ? estimate + " ms" : "unknown"));
+            }
+            else
+            {
+                summary.println("Updated " + run.updated.get() + " workspaces in '" + to + "', "
+                    + run.current.get() + " already up to date, " + failures.size()
+                    + " failed, " + timedOut.size() + " timed out, " + deferred.size()
+                    + " in use (" + retry.getRetries() + " retries)");
+            }
+            if (showStats)
+            {
+                run.getStats().forEach(summary::println);
+            }
+        }
+    }
+
+    /**
+     * Clones the code style of the source preferences into the settings of every Eclipse project
+     * under the destination path. Only project-scoped keys (see {@link #PROJECT_KEY_PREFIXES}) are
+     * merged into each project's files; everything else, such as the project's Java level, stays
+     * as it is. Projects are updated as the walker finds them; projects without a
+     * {@code .settings} directory use the workspace preferences and are left alone.
+     * 
+     * @throws IOException upon failure to read the source
+     */
+    private void cloneProjects() throws IOException
+    {
+        Profile profile = new Profile(loadProfile());
+        int projects = ProjectWalker.walk(to, Math.max(1, threads), errors, project -> {
+            Path settings = project.resolve(PROJECT_SETTINGS_DIR);
+            if (!Files.isDirectory(settings))
+            {
+                return false;
+            }
+            Map<String, byte[]> prefs = profile.forTarget(project).prefs;
+            long started = System.nanoTime();
+            int written = 0;
+            long bytes = 0;
+            for (Map.Entry<String, byte[]> entry : prefs.entrySet())
+            {
+                Path file = settings.resolve(entry.getKey());
+                byte[] existing = Files.exists(file)
+                    ? retry.call(() -> Files.readAllBytes(file))
+                    : new byte[0];
+                byte[] merged = PrefsFile.merge(Arrays.asList(existing, entry.getValue()),
+                    Eclipstyle::isProjectKey);
+                if (Arrays.equals(merged, existing))
+                {
+                    continue;
+                }
+                retry.run(() -> writePrefs(settings, entry.getKey(), merged, false));
+                written++;
+                bytes += merged.length;
+            }
+            results.report("Project", project,
+                written > 0 ? Results.Status.UPDATED : Results.Status.CURRENT, written,
+                prefs.size() - written, bytes, started, null);
+            return written > 0;
+        });
+        results.getSummaryStream().println("Updated " + projects + " projects in '" + to + "'");
+    }
+
+    /**
+     * @param key raw key of a preferences file
+     * @return true if the key is cloned into projects
+     */
+    private static boolean isProjectKey(String key)
+    {
+        for (String prefix : PROJECT_KEY_PREFIXES)
+        {
+            if (key.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exports the source preferences into a directory. Plain directories and workspaces are copied
+     * file by file; any other source is loaded first.
+     * 
+     * @throws IOException upon failure to read the source or write the destination
+     */
+    private void exportPrefs() throws IOException
+    {
+        List<Callable<Void>> copies = new ArrayList<>();
+        if (Files.isDirectory(from) && layers == null)
+        {
+            Set<String> prefsNames = findPrefs(from);
+            prefsNames.addAll(prefsFiles.getNames());
+            for (String prefsName : prefsNames)
+            {
+                copies.add(() -> {
+                    retry.run(() -> copyPrefs(from, to, prefsName, compress));
+                    return null;
+                });
+            }
+        }
+        else
+        {
+            for (Map.Entry<String, byte[]> entry : loadProfile().entrySet())
+            {
+                copies.add(() -> {
+                    retry.run(() -> writePrefs(to, entry.getKey(), entry.getValue(), compress));
+                    return null;
+                });
+            }
+        }
+        runAll(copies);
+        System.out.println("Exported preferences of '" + from + "' to '" + to + "'");
+    }
+
+    /**
+     * Writes the source preferences as a single Eclipse preference export.
+     * 
+     * @throws IOException upon failure to read the source or write the destination
+     */
+    private void exportEpf() throws IOException
+    {
+        Map<String, byte[]> prefs = loadProfile();
+        boolean stdout = to.toString().equals(STDIO);
+        Epf.write(prefs, stdout ? System.out : Files.newOutputStream(to));
+        (stdout ? System.err : System.out).println(
+            "Exported preferences of '" + from + "' to '" + to + "'");
+    }
+
+    /**
+     * Writes the preferences of one workspace, or of every workspace under the source path, into
+     * a single bundle. Entries of multiple workspaces are grouped by workspace directory name.
+     * 
+     * @throws IOException upon failure to read a source or write the bundle
+     */
+    private void exportBundle() throws IOException
+    {
+        Map<String, Path> sources = new LinkedHashMap<>();
+        if (!findPrefs(from).isEmpty())
+        {
+            sources.put("", from);
+        }
+        else
+        {
+            for (Path ws : getValidWorkspaces(from))
+            {
+                sources.put(ws.getFileName() + "/", ws);
+            }
+        }
+
+        boolean stdout = to.toString().equals(STDIO);
+        OutputStream out = stdout ? System.out : Files.newOutputStream(to);
+        try (Bundle archive = Bundle.create(bundle, new BufferedOutputStream(out)))
+        {
+            for (Map.Entry<String, Path> source : sources.entrySet())
+            {
+                Map<String, byte[]> prefs = readAllPrefs(source.getValue(), false);
+                for (Map.Entry<String, byte[]> entry : prefs.entrySet())
+                {
+                    String prefsName = entry.getKey();
+                    byte[] data = entry.getValue();
+                    if (compress)
+                    {
+                        ByteArrayOutputStream buf = new ByteArrayOutputStream(data.length / 4);
+                        try (OutputStream codec = PrefsCodec.compress(buf))
+                        {
+                            codec.write(data);
+                        }
+                        archive.add(source.getKey() + prefsName + PrefsCodec.EXTENSION,
+                            buf.toByteArray());
+                    }
+                    else
+                    {
+                        archive.add(source.getKey() + prefsName, data);
+                    }
+                }
+            }
+        }
+        (stdout ? System.err : System.out).println(
+            "Exported preferences of '" + from + "' to '" + to + "'");
+    }
+
+    /** Receives a preferences file of a workspace found by {@link #scanFleet}. */
+    private interface FleetScan
+    {
+        void add(int row, String prefsName, byte[] data);
+    }
+
+    /**
+     * Reads the preferences of a fleet of workspaces, in parallel.
+     * 
+     * @param registry the workspaces
+     * @param scan receives each preferences file, with the row (index) of its workspace
+     * @return the workspaces, by row
+     * @throws IOException if interrupted
+     */
+    private List<Path> scanFleet(WorkspaceRegistry registry, FleetScan scan) throws IOException
+    {
+        List<Path> workspaces = new ArrayList<>(registry.size());
+        registry.forEach(workspaces::add);
+        try (Progress progress = new Progress(showProgress, System.err);
+            Stage<Integer> stage = new Stage<>("scan", threads, threads * QUEUE_CAPACITY_PER_THREAD,
+                row -> {
+                    progress.started();
+                    Map<String, byte[]> prefs = readAllPrefs(workspaces.get(row), true);
+                    for (Map.Entry<String, byte[]> entry : prefs.entrySet())
+                    {
+                        scan.add(row, entry.getKey(), entry.getValue());
+                    }
+                    progress.finished(true);
+                },
+                (row, e) -> {
+                    progress.finished(false);
+                    errors.report(ErrorReport.Category.SCAN_FAILED, workspaces.get(row),
+                        e.getMessage());
+                }))
+        {
+            progress.start("workspaces", workspaces.size());
+            for (int row = 0; row < workspaces.size(); row++)
+            {
+                stage.put(row);
+            }
+            stage.awaitIdle();
+        }
+        return workspaces;
+    }
+
+    /**
+     * Scans the preferences of every workspace under the source path and prints, per key, how
+     * many workspaces have each value; keys with the same value everywhere are only counted. If a
+     * destination is given, the consensus profile (the most common value of each key) is written
+     * into it.
+     * 
+     * @throws IOException upon failure to list the workspaces or write the consensus profile
+     */
+    private void analyze() throws IOException
+    {
+        FleetStats stats = new FleetStats();
+        List<Path> workspaces = scanFleet(getValidWorkspaces(from),
+            (row, prefsName, data) -> stats.add(prefsName, data));
+
+        for (String prefsName : stats.getFiles())
+        {
+            List<FleetStats.Histogram> histograms = stats.getHistograms(prefsName);
+            System.out.println(prefsName + ": " + stats.getWorkspaces(prefsName) + " workspaces, "
+                + histograms.size() + " keys, "
+                + histograms.stream().filter(FleetStats.Histogram::isDiverse).count()
+                + " with differing values");
+            for (FleetStats.Histogram histogram : histograms)
+            {
+                if (!histogram.isDiverse())
+                {
+                    continue;
+                }
+                System.out.println("  " + histogram.getKey());
+                List<Map.Entry<String, Long>> values = histogram.getValues();
+                for (Map.Entry<String, Long> value
+                    : values.subList(0, Math.min(values.size(), HISTOGRAM_VALUES)))
+                {
+                    System.out.printf("    %8d  %s%n", value.getValue(), value.getKey());
+                }
+                if (values.size() > HISTOGRAM_VALUES)
+                {
+                    System.out.printf("    %8s  (%d more values)%n", "",
+                        values.size() - HISTOGRAM_VALUES);
+                }
+                if (histogram.getUnset() > 0)
+                {
+                    System.out.printf("    %8d  (unset)%n", histogram.getUnset());
+                }
+            }
+            if (to != null)
+            {
+                byte[] consensus = stats.getConsensus(prefsName);
+                retry.run(() -> writePrefs(to, prefsName, consensus, compress));
+            }
+        }
+        results.getSummaryStream().println("Analyzed " + workspaces.size() + " workspaces in '"
+            + from + "'" + (to != null ? ", wrote the consensus profile to '" + to + "'" : ""));
+    }
+
+    /**
+     * Writes the preferences of every workspace under the source path into a columnar snapshot,
+     * which queries map into memory instead of reading every workspace again.
+     * 
+     * @throws IOException upon failure to list the workspaces or write the snapshot
+     */
+    private void snapshotFleet() throws IOException
+    {
+        WorkspaceRegistry registry = getValidWorkspaces(from);
+        FleetSnapshot.Builder snapshot = new FleetSnapshot.Builder(registry.size());
+        List<Path> workspaces =
+            scanFleet(registry, snapshot::add);
+        snapshot.write(to, workspaces);
+        results.getSummaryStream().println("Wrote snapshot of " + workspaces.size()
+            + " workspaces in '" + from + "' (" + snapshot.getKeys() + " keys, "
+            + snapshot.getValues() + " values) to '" + to + "'");
+    }
+
+    /**
+     * Answers a {@code key=value} or {@code key!=value} query from a fleet snapshot. The number of
+     * matching workspaces is printed first, straight from the snapshot; the workspaces follow as
+     * the scan of the key's column finds them.
+     * 
+     * @throws IOException upon failure to read the snapshot, or an invalid query
+     */
+    private void query() throws IOException
+    {
+        String predicate = destination;
+        if (predicate == null)
+        {
+            throw new IOException("Missing query, expected key=value or key!=value");
+        }
+        // split at the first '=', so that values may hold '=' and '!='
+        int split = predicate.indexOf('=');
+        boolean equal = split <= 0 || predicate.charAt(split - 1) != '!';
+        String key = split > 0 ? predicate.substring(0, equal ? split : split - 1).trim() : "";
+        if (key.isEmpty())
+        {
+            throw new IOException(
+                "Invalid query '" + predicate + "', expected key=value or key!=value");
+        }
+        String value = predicate.substring(split + 1).trim();
+        FleetSnapshot snapshot = FleetSnapshot.open(from);
+        int count = snapshot.count(key, value, equal);
+        results.getSummaryStream().println(
+            count + " of " + snapshot.getRows() + " workspaces match '" + predicate + "'");
+        if (count > 0)
+        {
+            snapshot.select(key, value, equal,
+                row -> System.out.println(snapshot.getWorkspace(row)));
+        }
+    }
+
+    /**
+     * Splits a line of a manifest or rules file into arguments, separated by whitespace and
+     * optionally double-quoted.
+     * 
+     * @param line the line
+     * @return its arguments
+     */
+    static List<String> splitArgs(String line)
+    {
+        List<String> args = new ArrayList<>();
+        Matcher arg = QUOTED_ARG.matcher(line);
+        while (arg.find())
+        {
+            args.add(arg.group(1) != null ? arg.group(1) : arg.group(2));
+        }
+        return args;
+    }
+
+    /**
+     * Parses a batch manifest: one command line per line, e.g.
+     * {@code clone --index=team-a.idx /profiles/team-a /workspaces/team-a}. Arguments are separated
+     * by whitespace and may be double-quoted; blank lines and lines starting with {@code #} are
+     * ignored. Options of the whole run, such as {@code --output}, are rejected. Repeated entries
+     * are dropped; entries whose targets overlap otherwise are rejected, since they would race on
+     * the same files. Entries reading what another one writes are run
+     * after it by {@link #runBatch}.
+     * 
+     * @param manifest manifest file
+     * @return one configured command per distinct entry, in manifest order
+     * @throws IOException upon failure to read the manifest, or an invalid entry
+     */
+    private static List<Eclipstyle> parseManifest(Path manifest) throws IOException
+    {
+        List<Eclipstyle> jobs = new ArrayList<>();
+        List<List<String>> jobArgs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest);
+        for (int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            List<String> args = splitArgs(line);
+            String where = manifest + ":" + (i + 1) + ": ";
+            Eclipstyle job = new Eclipstyle();
+            CommandLine.ParseResult parsed;
+            try
+            {
+                parsed = new CommandLine(job).parseArgs(args.toArray(new String[0]));
+            }
+            catch (CommandLine.ParameterException e)
+            {
+                throw new IOException(where + e.getMessage());
+            }
+            for (String option : RUN_OPTIONS)
+            {
+                if (parsed.hasMatchedOption(option))
+                {
+                    throw new IOException(where + option
+                        + " applies to the whole batch, pass it to the batch command instead");
+                }
+            }
+            if (job.command.equals("batch")
+                || job.destination == null && !job.command.equals("analyze"))
+            {
+                throw new IOException(where + "expected <command> <from> <to>");
+            }
+            if (jobArgs.contains(args))
+            {
+                continue;
+            }
+
+            Path target = job.getTarget();
+            for (Eclipstyle claimed : jobs)
+            {
+                Path other = claimed.getTarget();
+                if (target == null || other == null)
+                {
+                    continue;
+                }
+                boolean nested = job.command.equals("clone-projects")
+                    || claimed.command.equals("clone-projects");
+                if (other.equals(target)
+                    || nested && (other.startsWith(target) || target.startsWith(other)))
+                {
+                    throw new IOException(where + "target overlaps with " + other);
+                }
+            }
+            jobs.add(job);
+            jobArgs.add(args);
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the destination as a path, or null if there is none or it is a query
+     */
+    private Path getDestinationPath()
+    {
+        return destination != null && !command.equals("query") ? Paths.get(destination) : null;
+    }
+
+    /**
+     * @return the path the command writes to, or null if it writes nothing
+     */
+    private Path getTarget()
+    {
+        Path target = getDestinationPath();
+        return target != null ? target.toAbsolutePath().normalize() : null;
+    }
+
+    /**
+     * @return the paths the command reads from
+     */
+    private List<Path> getInputs()
+    {
+        List<Path> inputs = new ArrayList<>();
+        inputs.add(from);
+        if (layers != null)
+        {
+            inputs.addAll(layers);
+        }
+        if (rulesFile != null)
+        {
+            inputs.add(rulesFile);
+        }
+        for (int i = 0; i < inputs.size(); i++)
+        {
+            inputs.set(i, inputs.get(i).toAbsolutePath().normalize());
+        }
+        return inputs;
+    }
+
+    /**
+     * Tells whether a batch command has to wait for an earlier one, i.e. whether either of them
+     * reads what the other writes.
+     */
+    private static boolean dependsOn(Eclipstyle later, Eclipstyle earlier)
+    {
+        return overlaps(earlier.getTarget(), later.getInputs())
+            || overlaps(later.getTarget(), earlier.getInputs());
+    }
+
+    private static boolean overlaps(Path target, List<Path> inputs)
+    {
+        for (Path input : inputs)
+        {
+            if (target != null && (input.startsWith(target) || target.startsWith(input)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the commands of a batch manifest concurrently in this JVM. Commands share the error
+     * report, results, retry budget and I/O threads of the run, and sources loaded by one command
+     * are reused by the others. A command that reads what an earlier one writes (or writes what
+     * it reads) waits for it, and is skipped if it failed.
+     * 
+     * @throws IOException upon failure to read the manifest, or an invalid entry
+     */
+    private void runBatch() throws IOException
+    {
+        List<Eclipstyle> entries = parseManifest(from);
+        Map<String, CompletableFuture<Map<String, byte[]>>> sources = new ConcurrentHashMap<>();
+        ExecutorService scheduler = Executors.newFixedThreadPool(
+            Math.max(1, jobs), DeadlineExecutor.daemon("eclipstyle-job"));
+        try
+        {
+            List<CompletableFuture<Boolean>> running = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++)
+            {
+                Eclipstyle entry = entries.get(i);
+                entry.errors = errors;
+                entry.results = results;
+                entry.retry = retry;
+                entry.executor = executor;
+                entry.sourceCache = sources;
+                entry.overlayCache = overlayCache;
+                List<CompletableFuture<Boolean>> after = new ArrayList<>();
+                for (int j = 0; j < i; j++)
+                {
+                    if (dependsOn(entry, entries.get(j)))
+                    {
+                        after.add(running.get(j));
+                    }
+                }
+                running.add(CompletableFuture.allOf(after.toArray(new CompletableFuture<?>[0]))
+                    .thenApplyAsync(ignored -> {
+                        for (CompletableFuture<Boolean> dependency : after)
+                        {
+                            if (!dependency.join())
+                            {
+                                System.err.println(entry.command + " '" + entry.from
+                                    + "' skipped: a command it depends on failed");
+                                return false;
+                            }
+                        }
+                        try
+                        {
+                            entry.execute();
+                            return true;
+                        }
+                        catch (IOException e)
+                        {
+                            System.err.println(entry.command + " '" + entry.from + "' failed: "
+                                + e.getMessage());
+                            return false;
+                        }
+                        catch (RuntimeException e)
+                        {
+                            System.err.println(entry.command + " '" + entry.from + "' failed: "
+                                + e);
+                            return false;
+                        }
+                    }, scheduler));
+            }
+            for (Future<?> job : running)
+            {
+                job.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause().toString(), e.getCause());
+        }
+        finally
+        {
+            scheduler.shutdown();
+        }
+        results.getSummaryStream().println(
+            "Ran " + entries.size() + " commands of '" + from + "'");
+    }
+
+    /**
+     * Runs the command, with the state shared by a whole run (error report, results, retry
+     * budget, I/O threads) already in place.
+     * 
+     * @throws IOException upon failure of the command
+     */
+    private void execute() throws IOException
+    {
+        to = getDestinationPath();
+        if (files != null)
+        {
+            prefsFiles = new PrefsFileSet(files);
+        }
+        else
+        {
+            prefsFiles = new PrefsFileSet(
+                command.equals("clone-projects") ? PROJECT_PREFS_FILENAMES : PREFS_FILENAMES);
+        }
+        if (command.equals("batch"))
+        {
+            runBatch();
+        }
+        else if (command.equals("analyze"))
+        {
+            analyze();
+        }
+        else if (command.equals("query"))
+        {
+            query();
+        }
+        else if (to == null)
+        {
+            System.err.println("Missing destination path for command: " + command);
+        }
+        else if (command.equals("clone"))
+        {
+            cloneWorkspaces();
+        }
+        else if (command.equals("clone-projects"))
+        {
+            cloneProjects();
+        }
+        else if (command.equals("snapshot-fleet"))
+        {
+            snapshotFleet();
+        }
+        else if (command.equals("export") && bundle != null)
+        {
+            exportBundle();
+        }
+        else if (command.equals("export") && isEpf(to))
+        {
+            exportEpf();
+        }
+        else if (command.equals("export"))
+        {
+            exportPrefs();
+        }
+        else
+        {
+            System.err.println("Invalid command: " + command);
+        }   
+    }
+
+    @Override
+    public Void call()
+    {
+        try
+        {
+            errors = new ErrorReport(errorLog);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed to create error log: " + e.getMessage());
+            return null;
+        }
+        retry = new Retry(retries, retryBudget);
+        results = new Results(output, System.out);
+        executor = Executors.newCachedThreadPool(DeadlineExecutor.daemon("eclipstyle-io"));
+        try
+        {
+            execute();
+        }
+        catch (IOException e)
+        {
+            System.err.println(command + " failed: " + e.getMessage());
+        }
+        finally
+        {
+            executor.shutdown();
+            try
+            {
+                results.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to write results: " + e.getMessage());
+            }
+            try
+            {
+                errors.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to write error log: " + e.getMessage());
+            }
+            errors.printSummary(System.err);
         }
         return null;
     }
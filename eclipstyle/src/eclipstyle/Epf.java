@@ -0,0 +1,123 @@
+package eclipstyle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Conversion between Eclipse preference exports (File &gt; Export &gt; Preferences) and per-plugin
+ * preferences files. An {@code .epf} file holds one {@code /instance/<plugin>/key=value} line per
+ * preference; lines are passed through verbatim, escapes included.
+ */
+final class Epf
+{
+    /** File name extension of Eclipse preference exports. */
+    static final String EXTENSION = ".epf";
+
+    private static final String INSTANCE_SCOPE = "/instance/";
+    private static final String PREFS_EXTENSION = ".prefs";
+    private static final String VERSION_KEY = "eclipse.preferences.version";
+
+    private Epf()
+    {
+    }
+
+    /**
+     * Splits a preference export into preferences files in a single pass over the stream.
+     *
+     * @param in preference export stream, closed when done
+     * @param prefsFiles preferences files to extract, others are skipped
+     * @return contents of the extracted preferences files, keyed by name
+     * @throws IOException upon failure to read the stream
+     */
+    static Map<String, byte[]> split(InputStream in, Predicate<String> prefsFiles)
+        throws IOException
+    {
+        Map<String, ByteArrayOutputStream> files = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(in, StandardCharsets.ISO_8859_1), 65536))
+        {
+            for (String line; (line = reader.readLine()) != null;)
+            {
+                if (!line.startsWith(INSTANCE_SCOPE))
+                {
+                    continue;
+                }
+                int slash = line.indexOf('/', INSTANCE_SCOPE.length());
+                if (slash < 0 || line.startsWith(VERSION_KEY + "=", slash + 1))
+                {
+                    continue;
+                }
+                String prefsName =
+                    line.substring(INSTANCE_SCOPE.length(), slash) + PREFS_EXTENSION;
+                if (!prefsFiles.test(prefsName))
+                {
+                    continue;
+                }
+                ByteArrayOutputStream out = files.get(prefsName);
+                if (out == null)
+                {
+                    out = new ByteArrayOutputStream(8192);
+                    out.write((VERSION_KEY + "=1\n").getBytes(StandardCharsets.ISO_8859_1));
+                    files.put(prefsName, out);
+                }
+                out.write(line.substring(slash + 1).getBytes(StandardCharsets.ISO_8859_1));
+                out.write('\n');
+            }
+        }
+        Map<String, byte[]> prefs = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> file : files.entrySet())
+        {
+            prefs.put(file.getKey(), file.getValue().toByteArray());
+        }
+        return prefs;
+    }
+
+    /**
+     * Writes preferences files as a single preference export that Eclipse can import.
+     *
+     * @param prefs contents of the preferences files, keyed by name
+     * @param out output stream, closed when done
+     * @throws IOException upon failure to write the stream
+     */
+    static void write(Map<String, byte[]> prefs, OutputStream out) throws IOException
+    {
+        try (Writer writer = new BufferedWriter(
+            new OutputStreamWriter(out, StandardCharsets.ISO_8859_1), 65536))
+        {
+            writer.write("#" + new Date() + "\n");
+            writer.write("file_export_version=3.0\n");
+            for (Map.Entry<String, byte[]> file : prefs.entrySet())
+            {
+                String name = file.getKey();
+                String scope = INSTANCE_SCOPE
+                    + name.substring(0, name.length() - PREFS_EXTENSION.length()) + "/";
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(file.getValue()), StandardCharsets.ISO_8859_1));
+                for (String line; (line = reader.readLine()) != null;)
+                {
+                    if (line.isEmpty() || line.startsWith("#")
+                        || line.startsWith(VERSION_KEY + "="))
+                    {
+                        continue;
+                    }
+                    writer.write(scope);
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package eclipstyle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the errors of a run instead of printing each one as it happens. Errors are counted per
+ * category and per parent directory without locking, summarized once at the end, and optionally
+ * written in full to a newline-delimited JSON file.
+ */
+final class ErrorReport implements Closeable
+{
+    private static final int SUMMARY_PREFIXES = 5;
+
+    /** Kinds of errors. */
+    enum Category
+    {
+        NOT_A_WORKSPACE("Not an Eclipse workspace"),
+        MISSING_PREFS("Could not locate prefs file"),
+        IN_USE("Skipped, in use by a running Eclipse"),
+        TIMED_OUT("Timed out"),
+        FAILED("Failed"),
+        SCAN_FAILED("Failed to scan");
+
+        private final String message;
+
+        Category(String message)
+        {
+            this.message = message;
+        }
+    }
+
+    private final Map<Category, Map<String, LongAdder>> counters = new EnumMap<>(Category.class);
+    private final Path detailFile;
+    private final NdjsonWriter details;
+
+    /**
+     * @param detailFile file to write every error to, or null
+     * @throws IOException upon failure to create the detail file
+     */
+    ErrorReport(Path detailFile) throws IOException
+    {
+        for (Category category : Category.values())
+        {
+            counters.put(category, new ConcurrentHashMap<>());
+        }
+        this.detailFile = detailFile;
+        this.details = detailFile != null
+            ? new NdjsonWriter(Files.newOutputStream(detailFile))
+            : null;
+    }
+
+    /**
+     * Records an error.
+     *
+     * @param category kind of error
+     * @param path path the error is about
+     * @param detail further information, or null
+     */
+    void report(Category category, Path path, String detail)
+    {
+        Path parent = path.toAbsolutePath().getParent();
+        counters.get(category)
+            .computeIfAbsent(parent != null ? parent.toString() : "/", prefix -> new LongAdder())
+            .increment();
+        if (details != null)
+        {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("time", System.currentTimeMillis());
+            record.put("category", category.name());
+            record.put("path", path.toString());
+            if (detail != null)
+            {
+                record.put("detail", detail);
+            }
+            details.write(record);
+        }
+    }
+
+    /**
+     * Prints the number of errors per category, along with the directories that hold most of them.
+     *
+     * @param out stream to print to
+     */
+    void printSummary(PrintStream out)
+    {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<Category, Map<String, LongAdder>> category : counters.entrySet())
+        {
+            Map<String, Long> prefixes = new LinkedHashMap<>();
+            category.getValue().entrySet().stream()
+                .sorted(Comparator.comparingLong(
+                    (Map.Entry<String, LongAdder> prefix) -> prefix.getValue().sum()).reversed())
+                .forEach(prefix -> prefixes.put(prefix.getKey(), prefix.getValue().sum()));
+            long total = prefixes.values().stream().mapToLong(Long::longValue).sum();
+            if (total == 0)
+            {
+                continue;
+            }
+            summary.append(category.getKey().message).append(": ").append(total);
+            int shown = 0;
+            for (Map.Entry<String, Long> prefix : prefixes.entrySet())
+            {
+                if (shown++ == SUMMARY_PREFIXES)
+                {
+                    summary.append(System.lineSeparator()).append("    ...");
+                    break;
+                }
+                summary.append(System.lineSeparator()).append("    ").append(prefix.getKey())
+                    .append(": ").append(prefix.getValue());
+            }
+            summary.append(System.lineSeparator());
+        }
+        if (summary.length() > 0 && detailFile != null)
+        {
+            summary.append("Details in ").append(detailFile).append(System.lineSeparator());
+        }
+        out.print(summary);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (details != null)
+        {
+            details.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package eclipstyle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of preference values across a fleet of workspaces, e.g. how many workspaces indent
+ * with spaces, and the consensus profile made of the most common value of each key. Workspaces
+ * may be added concurrently. Keys and values are interned, and counted per (key ID, value ID)
+ * pair, so the aggregate does not grow with the number of workspaces.
+ */
+final class FleetStats
+{
+    /** Values of one key, most common first. */
+    static final class Histogram
+    {
+        private final String key;
+        private final List<Map.Entry<String, Long>> values;
+        private final long unset;
+
+        private Histogram(String key, List<Map.Entry<String, Long>> values, long unset)
+        {
+            this.key = key;
+            this.values = values;
+            this.unset = unset;
+        }
+
+        String getKey()
+        {
+            return key;
+        }
+
+        /**
+         * @return raw values and the number of workspaces having each, most common first
+         */
+        List<Map.Entry<String, Long>> getValues()
+        {
+            return values;
+        }
+
+        /**
+         * @return number of workspaces having the file but not the key
+         */
+        long getUnset()
+        {
+            return unset;
+        }
+
+        /**
+         * @return true unless every workspace has the same value
+         */
+        boolean isDiverse()
+        {
+            return values.size() > 1 || unset > 0;
+        }
+
+        /**
+         * @return the most common value, or null if the key is more often unset than set to it
+         */
+        String getConsensus()
+        {
+            return values.isEmpty() || values.get(0).getValue() < unset
+                ? null : values.get(0).getKey();
+        }
+    }
+
+    private static final class FileStats
+    {
+        private final LongAdder workspaces = new LongAdder();
+        private final Map<Long, LongAdder> counts = new ConcurrentHashMap<>();
+    }
+
+    private final KeyDictionary keys = new KeyDictionary();
+    private final KeyDictionary values = new KeyDictionary();
+    private final Map<String, FileStats> files = new ConcurrentHashMap<>();
+
+    /**
+     * Counts the entries of a preferences file of one workspace.
+     *
+     * @param prefsName name of the preferences file
+     * @param data contents of the preferences file
+     */
+    void add(String prefsName, byte[] data)
+    {
+        FileStats stats = files.computeIfAbsent(prefsName, name -> new FileStats());
+        int[] ids = PrefsFile.parseIds(data, keys, values);
+        for (int i = 0; i < ids.length; i += 2)
+        {
+            long pair = (long) ids[i] << 32 | ids[i + 1];
+            stats.counts.computeIfAbsent(pair, p -> new LongAdder()).increment();
+        }
+        stats.workspaces.increment();
+    }
+
+    /**
+     * @return names of the preferences files found, sorted
+     */
+    Set<String> getFiles()
+    {
+        return new TreeSet<>(files.keySet());
+    }
+
+    /**
+     * @param prefsName name of a preferences file
+     * @return number of workspaces having the file
+     */
+    long getWorkspaces(String prefsName)
+    {
+        return files.get(prefsName).workspaces.sum();
+    }
+
+    /**
+     * @param prefsName name of a preferences file
+     * @return histogram of every key of the file, sorted by key
+     */
+    List<Histogram> getHistograms(String prefsName)
+    {
+        FileStats stats = files.get(prefsName);
+        Map<String, List<Map.Entry<String, Long>>> byKey = new TreeMap<>();
+        for (Map.Entry<Long, LongAdder> count : stats.counts.entrySet())
+        {
+            long pair = count.getKey();
+            byKey.computeIfAbsent(keys.get((int) (pair >>> 32)), k -> new ArrayList<>())
+                .add(new AbstractMap.SimpleImmutableEntry<>(
+                    values.get((int) pair), count.getValue().sum()));
+        }
+        long workspaces = stats.workspaces.sum();
+        Comparator<Map.Entry<String, Long>> order =
+            Collections.reverseOrder(Map.Entry.comparingByValue());
+        order = order.thenComparing(Map.Entry.comparingByKey());
+        List<Histogram> histograms = new ArrayList<>(byKey.size());
+        for (Map.Entry<String, List<Map.Entry<String, Long>>> key : byKey.entrySet())
+        {
+            List<Map.Entry<String, Long>> counts = key.getValue();
+            counts.sort(order);
+            long set = counts.stream().mapToLong(Map.Entry::getValue).sum();
+            histograms.add(new Histogram(key.getKey(), counts, workspaces - set));
+        }
+        return histograms;
+    }
+
+    /**
+     * Builds the consensus version of a preferences file: every key set by most workspaces having
+     * the file, with its most common value.
+     *
+     * @param prefsName name of a preferences file
+     * @return contents of the consensus preferences file
+     */
+    byte[] getConsensus(String prefsName)
+    {
+        StringBuilder consensus = new StringBuilder();
+        for (Histogram histogram : getHistograms(prefsName))
+        {
+            String value = histogram.getConsensus();
+            if (value != null)
+            {
+                consensus.append(histogram.getKey()).append('=').append(value)
+                    .append(System.lineSeparator());
+            }
+        }
+        return consensus.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
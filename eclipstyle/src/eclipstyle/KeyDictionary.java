@@ -0,0 +1,192 @@
+package eclipstyle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dictionary of the keys (or values) found across a fleet of workspaces, mapping each distinct
+ * byte string to a small int ID, in order of first appearance. The same few hundred keys recur in
+ * every workspace, so aggregates keyed by ID hold each string once, however many workspaces are
+ * scanned.
+ * <p>
+ * Strings are looked up straight from the buffer they were read into: looking up a known string
+ * allocates nothing and takes no lock. Only new strings are copied, under a lock. The hash table
+ * is an open-addressing table of IDs, replaced by a larger one as it fills up; a lookup racing
+ * with an insert may miss, in which case {@link #intern} retries under the lock.
+ */
+final class KeyDictionary
+{
+    private static final int INITIAL_CAPACITY = 512;
+
+    private volatile AtomicIntegerArray table = new AtomicIntegerArray(INITIAL_CAPACITY);
+    private volatile byte[][] entries = new byte[INITIAL_CAPACITY / 2][];
+    private volatile int[] hashes = new int[INITIAL_CAPACITY / 2];
+    private volatile int size;
+
+    /**
+     * Looks up the ID of a byte string, assigning the next free ID if it is new.
+     *
+     * @param buf buffer holding the string
+     * @param off offset of the string
+     * @param len length of the string
+     * @return its ID
+     */
+    int intern(byte[] buf, int off, int len)
+    {
+        int hash = hash(buf, off, len);
+        int id = find(buf, off, len, hash);
+        return id >= 0 ? id : insert(buf, off, len, hash);
+    }
+
+    /**
+     * Looks up the ID of a string, assigning the next free ID if it is new.
+     *
+     * @param name the string, of ISO-8859-1 characters
+     * @return its ID
+     */
+    int intern(String name)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Looks up the ID of a string.
+     *
+     * @param name the string, of ISO-8859-1 characters
+     * @return its ID, or -1 if it is not in the dictionary
+     */
+    int find(String name)
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        int hash = hash(bytes, 0, bytes.length);
+        int id = find(bytes, 0, bytes.length, hash);
+        if (id < 0)
+        {
+            synchronized (this)
+            {
+                id = find(bytes, 0, bytes.length, hash);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param id ID of a string
+     * @return the string, as ISO-8859-1 characters
+     */
+    String get(int id)
+    {
+        return new String(getBytes(id), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param id ID of a string
+     * @return the string, which must not be modified
+     */
+    byte[] getBytes(int id)
+    {
+        if (id < 0 || id >= size)
+        {
+            throw new IndexOutOfBoundsException("No such ID: " + id);
+        }
+        return entries[id];
+    }
+
+    /**
+     * @return number of distinct strings
+     */
+    int size()
+    {
+        return size;
+    }
+
+    private int find(byte[] buf, int off, int len, int hash)
+    {
+        AtomicIntegerArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask)
+        {
+            int slot = slots.get(i);
+            if (slot == 0)
+            {
+                return -1;
+            }
+            // the slot is written after the entry, so the entry is visible once the slot is
+            int id = slot - 1;
+            if (hashes[id] == hash && equals(entries[id], buf, off, len))
+            {
+                return id;
+            }
+        }
+    }
+
+    private synchronized int insert(byte[] buf, int off, int len, int hash)
+    {
+        int id = find(buf, off, len, hash);
+        if (id >= 0)
+        {
+            return id;
+        }
+        id = size;
+        if (id == entries.length)
+        {
+            entries = Arrays.copyOf(entries, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        entries[id] = Arrays.copyOfRange(buf, off, off + len);
+        hashes[id] = hash;
+        AtomicIntegerArray slots = table;
+        if ((id + 1) * 2 > slots.length())
+        {
+            slots = new AtomicIntegerArray(slots.length() * 2);
+            for (int i = 0; i < id; i++)
+            {
+                place(slots, i);
+            }
+        }
+        place(slots, id);
+        table = slots;
+        size = id + 1;
+        return id;
+    }
+
+    private void place(AtomicIntegerArray slots, int id)
+    {
+        int mask = slots.length() - 1;
+        int i = hashes[id] & mask;
+        while (slots.get(i) != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        slots.set(i, id + 1);
+    }
+
+    private static int hash(byte[] buf, int off, int len)
+    {
+        // FNV-1a, then spread the high bits into the low ones used as table index
+        int hash = 0x811c9dc5;
+        for (int i = off; i < off + len; i++)
+        {
+            hash = (hash ^ (buf[i] & 0xff)) * 0x01000193;
+        }
+        return hash ^ hash >>> 16;
+    }
+
+    private static boolean equals(byte[] entry, byte[] buf, int off, int len)
+    {
+        if (entry.length != len)
+        {
+            return false;
+        }
+        for (int i = 0; i < len; i++)
+        {
+            if (entry[i] != buf[off + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+package eclipstyle;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Newline-delimited JSON writer. Records are queued without locking and written by a single
+ * background thread through one buffered writer, so producers never wait on the output.
+ */
+final class NdjsonWriter implements Closeable
+{
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean idle = new AtomicBoolean();
+    private final Writer writer;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * @param out output stream, closed along with the writer
+     */
+    NdjsonWriter(OutputStream out)
+    {
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+        thread = DeadlineExecutor.daemon("eclipstyle-ndjson").newThread(this::drain);
+        thread.start();
+    }
+
+    /**
+     * Queues a record. Values are written as JSON numbers if they are numbers, as JSON arrays of
+     * strings if they are collections, as JSON strings otherwise.
+     *
+     * @param record record fields, in order
+     */
+    void write(Map<String, ?> record)
+    {
+        StringBuilder json = new StringBuilder(128).append('{');
+        for (Map.Entry<String, ?> field : record.entrySet())
+        {
+            if (json.length() > 1)
+            {
+                json.append(',');
+            }
+            quote(json, field.getKey()).append(':');
+            Object value = field.getValue();
+            if (value instanceof Number || value instanceof Boolean)
+            {
+                json.append(value);
+            }
+            else if (value instanceof Collection)
+            {
+                json.append('[');
+                for (Object element : (Collection<?>) value)
+                {
+                    if (json.charAt(json.length() - 1) != '[')
+                    {
+                        json.append(',');
+                    }
+                    quote(json, String.valueOf(element));
+                }
+                json.append(']');
+            }
+            else
+            {
+                quote(json, String.valueOf(value));
+            }
+        }
+        queue.offer(json.append('}').toString());
+        if (idle.compareAndSet(true, false))
+        {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Writes out every queued record and closes the output.
+     *
+     * @throws IOException the first failure to write a record
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writer thread: writes queued records and flushes whenever the queue runs dry.
+     */
+    private void drain()
+    {
+        boolean dirty = false;
+        while (true)
+        {
+            String record = queue.poll();
+            try
+            {
+                if (record != null)
+                {
+                    writer.write(record);
+                    writer.write('\n');
+                    dirty = true;
+                    continue;
+                }
+                if (dirty)
+                {
+                    writer.flush();
+                    dirty = false;
+                }
+            }
+            catch (IOException e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+            }
+            if (closed && queue.isEmpty())
+            {
+                return;
+            }
+            idle.set(true);
+            if (queue.isEmpty() && !closed)
+            {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            idle.set(false);
+        }
+    }
+
+    private static StringBuilder quote(StringBuilder json, String value)
+    {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+}
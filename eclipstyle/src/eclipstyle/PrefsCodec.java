@@ -0,0 +1,165 @@
+package eclipstyle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate codec for preferences files. Streams are raw deflate primed with a preset dictionary
+ * (see {@code prefs.dict}) cut from the sample preferences, so the keys shared by every workspace
+ * cost a back-reference instead of a literal. The stream header holds the Adler-32 checksum of the
+ * dictionary, so that files compressed with another dictionary are rejected instead of inflating
+ * to garbage.
+ */
+final class PrefsCodec
+{
+    /** File name extension of compressed preferences files. */
+    static final String EXTENSION = ".dz";
+
+    private static final byte[] MAGIC = {'E', 'P', 'Z'};
+    private static final byte VERSION = 2;
+    private static final byte[] DICTIONARY = loadDictionary();
+    private static final int DICTIONARY_ID = checksum(DICTIONARY);
+
+    private PrefsCodec()
+    {
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is compressed.
+     *
+     * @param out underlying output stream
+     * @return compressing output stream, which also closes {@code out}
+     * @throws IOException upon failure to write the stream header
+     */
+    static OutputStream compress(OutputStream out) throws IOException
+    {
+        out.write(MAGIC);
+        out.write(VERSION);
+        for (int shift = 24; shift >= 0; shift -= 8)
+        {
+            out.write(DICTIONARY_ID >>> shift);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setDictionary(DICTIONARY);
+        return new DeflaterOutputStream(out, deflater, 8192)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a compressed stream so that reading from it yields the original bytes. The stream
+     * itself inflates incrementally, but clone and export read each preferences file whole into
+     * memory, compressed or not.
+     *
+     * @param in compressed input stream
+     * @return decompressing input stream, which also closes {@code in}
+     * @throws IOException if the stream is not in the expected format, or was compressed with
+     *         another dictionary
+     */
+    static InputStream decompress(InputStream in) throws IOException
+    {
+        byte[] header = readHeader(in, MAGIC.length + 1);
+        if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)
+            || header[MAGIC.length] != VERSION)
+        {
+            throw new IOException("Not a compressed preferences stream");
+        }
+        byte[] id = readHeader(in, 4);
+        int dictionaryId = (id[0] & 0xff) << 24 | (id[1] & 0xff) << 16 | (id[2] & 0xff) << 8
+            | id[3] & 0xff;
+        if (dictionaryId != DICTIONARY_ID)
+        {
+            throw new IOException(String.format(
+                "Compressed with another prefs.dict (Adler-32 %08x, expected %08x)",
+                dictionaryId, DICTIONARY_ID));
+        }
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(DICTIONARY);
+        return new FilterInputStream(new InflaterInputStream(in, inflater, 8192))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static byte[] readHeader(InputStream in, int length) throws IOException
+    {
+        byte[] header = new byte[length];
+        int n = 0;
+        while (n < header.length)
+        {
+            int r = in.read(header, n, header.length - n);
+            if (r < 0)
+            {
+                throw new IOException("Not a compressed preferences stream");
+            }
+            n += r;
+        }
+        return header;
+    }
+
+    private static int checksum(byte[] data)
+    {
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Reads the preset dictionary bundled next to this class.
+     *
+     * @return dictionary bytes
+     */
+    private static byte[] loadDictionary()
+    {
+        try (InputStream in = PrefsCodec.class.getResourceAsStream("prefs.dict"))
+        {
+            if (in == null)
+            {
+                throw new IllegalStateException("Missing resource prefs.dict");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(32768);
+            byte[] buf = new byte[8192];
+            for (int r; (r = in.read(buf)) > 0;)
+            {
+                out.write(buf, 0, r);
+            }
+            return out.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Failed to load prefs.dict: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package eclipstyle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Parser and merge of Eclipse {@code .prefs} files, which are Java properties files written by
+ * Eclipse with sorted keys. Entries are kept as their raw lines (escapes and continuation lines
+ * included) and keyed by their raw key, so that merged files hold the very bytes Eclipse wrote.
+ */
+final class PrefsFile
+{
+    private PrefsFile()
+    {
+    }
+
+    /**
+     * Merges preferences files: keys of later files override keys of earlier ones. The result
+     * keeps the comment header and line separator of the first file, and sorts keys as Eclipse
+     * does.
+     *
+     * @param layers contents of the preferences files, from bottom to top
+     * @return contents of the merged preferences file
+     */
+    static byte[] merge(List<byte[]> layers)
+    {
+        return merge(layers, key -> true);
+    }
+
+    /**
+     * Merges preferences files, taking only some keys from the files on top of the first one:
+     * other keys keep the value of the first file, if any.
+     *
+     * @param layers contents of the preferences files, from bottom to top
+     * @param overrides tells whether a raw key of the upper files is taken
+     * @return contents of the merged preferences file
+     */
+    static byte[] merge(List<byte[]> layers, Predicate<String> overrides)
+    {
+        List<String> header = new ArrayList<>();
+        Map<String, String> entries = new TreeMap<>();
+        String separator = null;
+        for (int i = 0; i < layers.size(); i++)
+        {
+            // ISO-8859-1 maps bytes 1:1, so raw lines survive decoding and encoding unchanged
+            String text = new String(layers.get(i), StandardCharsets.ISO_8859_1);
+            if (separator == null && text.indexOf('\n') >= 0)
+            {
+                int lf = text.indexOf('\n');
+                separator = lf > 0 && text.charAt(lf - 1) == '\r' ? "\r\n" : "\n";
+            }
+            if (i == 0)
+            {
+                parse(text, entries, header);
+                continue;
+            }
+            Map<String, String> layer = new TreeMap<>();
+            parse(text, layer, null);
+            for (Map.Entry<String, String> entry : layer.entrySet())
+            {
+                if (overrides.test(entry.getKey()))
+                {
+                    entries.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (separator == null)
+        {
+            separator = "\n";
+        }
+
+        StringBuilder merged = new StringBuilder();
+        for (String line : header)
+        {
+            merged.append(line).append(separator);
+        }
+        for (String line : entries.values())
+        {
+            merged.append(line).append(separator);
+        }
+        return merged.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses the logical lines of a properties file.
+     *
+     * @param text file contents
+     * @param entries receives the raw line of each entry, keyed by raw key
+     * @param header receives the comment lines before the first entry, or null
+     */
+    static void parse(String text, Map<String, String> entries, List<String> header)
+    {
+        scan(text, (start, first, keyEnd, end) -> {
+            if (keyEnd >= 0)
+            {
+                entries.put(text.substring(first, keyEnd), text.substring(start, end));
+            }
+            else if (header != null && entries.isEmpty() && first < end)
+            {
+                header.add(text.substring(start, end));
+            }
+        });
+    }
+
+    /**
+     * Parses the entries of a preferences file into the IDs of their raw keys and values, without
+     * creating a string per entry: at fleet scale, the same few hundred keys would otherwise be
+     * allocated again for every workspace.
+     *
+     * @param data file contents
+     * @param keys dictionary of keys
+     * @param values dictionary of values
+     * @return key and value IDs of the entries, alternately, in file order
+     */
+    static int[] parseIds(byte[] data, KeyDictionary keys, KeyDictionary values)
+    {
+        CharSequence text = new Latin1(data);
+        class Collector implements LineVisitor
+        {
+            private int[] ids = new int[64];
+            private int size;
+
+            @Override
+            public void line(int start, int first, int keyEnd, int end)
+            {
+                if (keyEnd < 0)
+                {
+                    return;
+                }
+                int value = valueStart(text, keyEnd, end);
+                if (size + 2 > ids.length)
+                {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[size++] = keys.intern(data, first, keyEnd - first);
+                ids[size++] = values.intern(data, value, end - value);
+            }
+        }
+        Collector collector = new Collector();
+        scan(text, collector);
+        return Arrays.copyOf(collector.ids, collector.size);
+    }
+
+    /** Receives the logical lines found by {@link #scan}. */
+    private interface LineVisitor
+    {
+        /**
+         * @param start start of the line
+         * @param first first non-blank character of the line
+         * @param keyEnd end of the raw key, or -1 for blank and comment lines
+         * @param end end of the line, continuation lines included
+         */
+        void line(int start, int first, int keyEnd, int end);
+    }
+
+    private static void scan(CharSequence text, LineVisitor visitor)
+    {
+        int n = text.length();
+        int i = 0;
+        while (i < n)
+        {
+            int start = i;
+            int end = lineEnd(text, i);
+            int first = skipBlanks(text, i, end);
+            if (first == end || text.charAt(first) == '#' || text.charAt(first) == '!')
+            {
+                visitor.line(start, first, -1, end);
+                i = nextLine(text, end);
+                continue;
+            }
+            while (isContinued(text, first, end) && end < n)
+            {
+                end = lineEnd(text, nextLine(text, end));
+            }
+            int k = first;
+            while (k < end)
+            {
+                char c = text.charAt(k);
+                if (c == '\\')
+                {
+                    k += 2;
+                    continue;
+                }
+                if (c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f')
+                {
+                    break;
+                }
+                k++;
+            }
+            visitor.line(start, first, Math.min(k, end), end);
+            i = nextLine(text, end);
+        }
+    }
+
+    /**
+     * Finds the raw value of an entry: after the key, the blanks and the optional separator.
+     */
+    private static int valueStart(CharSequence text, int keyEnd, int end)
+    {
+        int i = skipBlanks(text, keyEnd, end);
+        if (i < end && (text.charAt(i) == '=' || text.charAt(i) == ':'))
+        {
+            i = skipBlanks(text, i + 1, end);
+        }
+        return i;
+    }
+
+    private static int lineEnd(CharSequence text, int from)
+    {
+        int end = from;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r')
+        {
+            end++;
+        }
+        return end;
+    }
+
+    private static int nextLine(CharSequence text, int end)
+    {
+        if (end < text.length() && text.charAt(end) == '\r')
+        {
+            end++;
+        }
+        if (end < text.length() && text.charAt(end) == '\n')
+        {
+            end++;
+        }
+        return end;
+    }
+
+    private static int skipBlanks(CharSequence text, int from, int end)
+    {
+        while (from < end && (text.charAt(from) == ' ' || text.charAt(from) == '\t'
+            || text.charAt(from) == '\f'))
+        {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Tells whether a line continues on the next one, i.e. ends with an odd number of backslashes.
+     */
+    private static boolean isContinued(CharSequence text, int from, int end)
+    {
+        int backslashes = 0;
+        while (end > from && text.charAt(end - 1) == '\\')
+        {
+            backslashes++;
+            end--;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /** Bytes seen as ISO-8859-1 characters, without copying them. */
+    private static final class Latin1 implements CharSequence
+    {
+        private final byte[] data;
+
+        private Latin1(byte[] data)
+        {
+            this.data = data;
+        }
+
+        @Override
+        public int length()
+        {
+            return data.length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) (data[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return new String(data, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Set of preferences files to copy, given as plain file names and/or glob patterns such as
+ * {@code org.eclipse.m2e.*.prefs}.
+ */
+final class PrefsFileSet implements Predicate<String>
+{
+    private final Set<String> names = new LinkedHashSet<>();
+    private final List<PathMatcher> globs = new ArrayList<>();
+
+    /**
+     * @param patterns file names or glob patterns
+     */
+    PrefsFileSet(Collection<String> patterns)
+    {
+        for (String pattern : patterns)
+        {
+            if (pattern.matches(".*[*?\\[{].*"))
+            {
+                globs.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            }
+            else
+            {
+                names.add(pattern);
+            }
+        }
+    }
+
+    /**
+     * @return the plain file names of the set
+     */
+    Set<String> getNames()
+    {
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Tells whether a file name belongs to the set.
+     *
+     * @param name preferences file name
+     * @return true if the name is listed or matches a glob pattern
+     */
+    @Override
+    public boolean test(String name)
+    {
+        if (names.contains(name))
+        {
+            return true;
+        }
+        Path path = Paths.get(name);
+        return globs.stream().anyMatch(glob -> glob.matches(path));
+    }
+
+    /**
+     * Lists the files within the given directories that match a glob pattern of the set.
+     * Compressed files are reported under their plain name.
+     *
+     * @param dirs directories to list; missing ones are skipped
+     * @return names of the matching files
+     * @throws IOException upon failure to list a directory
+     */
+    Set<String> find(Path... dirs) throws IOException
+    {
+        Set<String> found = new LinkedHashSet<>();
+        if (globs.isEmpty())
+        {
+            return found;
+        }
+        for (Path dir : dirs)
+        {
+            if (!Files.isDirectory(dir))
+            {
+                continue;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, Files::isRegularFile))
+            {
+                for (Path file : files)
+                {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(PrefsCodec.EXTENSION))
+                    {
+                        name = name.substring(0, name.length() - PrefsCodec.EXTENSION.length());
+                    }
+                    if (test(name))
+                    {
+                        found.add(name);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,166 @@
+package eclipstyle;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import picocli.CommandLine.Help.Ansi;
+
+/**
+ * Single-line progress display of a run. Workers only bump counters; the line is redrawn at a
+ * fixed rate by a separate ticker thread, so that workers never wait on the console. Nothing is
+ * drawn unless the console is a terminal.
+ */
+final class Progress implements Closeable
+{
+    private static final long REFRESH_MILLIS = 200;
+    private static final int BAR_WIDTH = 30;
+    private static final String CLEAR_LINE = "\r\u001B[K";
+
+    private final PrintStream out;
+    private final boolean enabled;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private ScheduledExecutorService ticker;
+    private String unit;
+    private int total;
+    private long started;
+
+    /**
+     * @param requested whether progress was asked for
+     * @param out stream to draw the progress line on
+     */
+    Progress(boolean requested, PrintStream out)
+    {
+        this.out = out;
+        // same check as picocli's Ansi.isTTY(), which is not visible outside its package
+        this.enabled = requested && System.console() != null;
+    }
+
+    /**
+     * Starts drawing the progress line.
+     *
+     * @param unit what is being counted (e.g. workspaces)
+     * @param total number of items expected
+     */
+    void start(String unit, int total)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        this.unit = unit;
+        this.total = total;
+        this.started = System.nanoTime();
+        ticker = Executors.newSingleThreadScheduledExecutor(
+            DeadlineExecutor.daemon("eclipstyle-progress"));
+        ticker.scheduleAtFixedRate(() -> out.print(CLEAR_LINE + render()),
+            0, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts an item as in flight.
+     */
+    void started()
+    {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Counts an item in flight as done.
+     *
+     * @param ok whether the item succeeded
+     */
+    void finished(boolean ok)
+    {
+        if (!ok)
+        {
+            failed.incrementAndGet();
+        }
+        inFlight.decrementAndGet();
+        done.incrementAndGet();
+    }
+
+    /**
+     * Counts an item as no longer in flight, without being done (e.g. deferred to a later retry).
+     */
+    void abandoned()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Counts an item in flight as not to be done after all (e.g. not a workspace), taking it off
+     * the total.
+     */
+    void dropped()
+    {
+        inFlight.decrementAndGet();
+        dropped.incrementAndGet();
+    }
+
+    private String render()
+    {
+        int count = done.get();
+        int total = this.total - dropped.get();
+        double seconds = Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+        double rate = count / seconds;
+        int filled = total > 0 ? (int) ((long) Math.min(count, total) * BAR_WIDTH / total) : 0;
+        StringBuilder bar = new StringBuilder(BAR_WIDTH);
+        for (int i = 0; i < BAR_WIDTH; i++)
+        {
+            bar.append(i < filled ? '#' : '-');
+        }
+        StringBuilder line = new StringBuilder()
+            .append("@|bold [").append(bar).append("]|@ ")
+            .append(count).append('/').append(total).append(' ').append(unit)
+            .append(String.format(" %.0f/s", rate));
+        if (count > 0 && count < total)
+        {
+            long eta = (long) ((total - count) / rate);
+            line.append(String.format(" ETA %d:%02d", eta / 60, eta % 60));
+        }
+        int errors = failed.get();
+        if (errors > 0)
+        {
+            line.append(" @|red ").append(errors).append(" failed|@");
+        }
+        line.append(", ").append(inFlight.get()).append(" in flight");
+        return Ansi.AUTO.string(line.toString());
+    }
+
+    /**
+     * Stops drawing the progress line and leaves its final state on the console. Stopping again
+     * does nothing.
+     */
+    void stop()
+    {
+        if (ticker == null)
+        {
+            return;
+        }
+        ScheduledExecutorService stopped = ticker;
+        ticker = null;
+        stopped.shutdownNow();
+        try
+        {
+            stopped.awaitTermination(REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        out.println(CLEAR_LINE + render());
+    }
+
+    @Override
+    public void close()
+    {
+        stop();
+    }
+}
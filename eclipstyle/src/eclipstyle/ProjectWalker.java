@@ -0,0 +1,115 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel directory walker that finds Eclipse projects (directories holding a {@code .project}
+ * file) and hands each one to a visitor as soon as it is found, so that discovery and updates
+ * happen in a single pass over the tree. Build output and VCS directories are not descended into,
+ * and symbolic links are not followed.
+ */
+final class ProjectWalker extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+    private static final String PROJECT_FILENAME = ".project";
+    private static final Set<String> SKIPPED_DIRS =
+        new HashSet<>(Arrays.asList(".git", "target", "node_modules"));
+
+    /** Callback for every project found, telling whether the project was updated. */
+    interface Visitor
+    {
+        boolean visit(Path project) throws IOException;
+    }
+
+    private final Path dir;
+    private final Visitor visitor;
+    private final ErrorReport errors;
+    private final AtomicInteger projects;
+
+    private ProjectWalker(Path dir, Visitor visitor, ErrorReport errors, AtomicInteger projects)
+    {
+        this.dir = dir;
+        this.visitor = visitor;
+        this.errors = errors;
+        this.projects = projects;
+    }
+
+    /**
+     * Walks a directory tree and visits every project within it.
+     *
+     * @param root root of the tree
+     * @param parallelism number of directories scanned concurrently
+     * @param errors report of directories that could not be scanned or updated
+     * @param visitor project callback, invoked concurrently
+     * @return number of projects updated
+     */
+    static int walk(Path root, int parallelism, ErrorReport errors, Visitor visitor)
+    {
+        AtomicInteger projects = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            pool.invoke(new ProjectWalker(root, visitor, errors, projects));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return projects.get();
+    }
+
+    @Override
+    protected void compute()
+    {
+        List<ProjectWalker> subDirs = new ArrayList<>();
+        boolean project = false;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir))
+        {
+            for (Path entry : entries)
+            {
+                String name = entry.getFileName().toString();
+                if (name.equals(PROJECT_FILENAME))
+                {
+                    project = true;
+                }
+                else if (!SKIPPED_DIRS.contains(name)
+                    && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+                {
+                    subDirs.add(new ProjectWalker(entry, visitor, errors, projects));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            errors.report(ErrorReport.Category.SCAN_FAILED, dir, e.getMessage());
+            return;
+        }
+        if (project)
+        {
+            try
+            {
+                if (visitor.visit(dir))
+                {
+                    projects.incrementAndGet();
+                }
+            }
+            catch (IOException e)
+            {
+                errors.report(ErrorReport.Category.FAILED, dir, e.getMessage());
+            }
+        }
+        invokeAll(subDirs);
+    }
+}
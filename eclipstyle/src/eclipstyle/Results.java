@@ -0,0 +1,137 @@
+package eclipstyle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-workspace (or per-project) outcomes of a run, either as human readable lines or as one
+ * JSON record per line for machine consumers. JSON records are handed to a background writer, so
+ * that output never holds up the workers of a parallel run.
+ */
+final class Results implements Closeable
+{
+    /** Output formats. */
+    enum Format
+    {
+        text, ndjson
+    }
+
+    /** Outcomes of a single workspace or project. */
+    enum Status
+    {
+        UPDATED, CURRENT, PLANNED, FAILED, TIMED_OUT, IN_USE
+    }
+
+    private final PrintStream out;
+    private final NdjsonWriter records;
+
+    /**
+     * @param format output format
+     * @param out stream to write results to
+     */
+    Results(Format format, PrintStream out)
+    {
+        this.out = out;
+        this.records = format == Format.ndjson ? new NdjsonWriter(out) : null;
+    }
+
+    /**
+     * Records the outcome of a single workspace or project.
+     *
+     * @param kind what the path is (Workspace/Project)
+     * @param path workspace or project path
+     * @param status outcome
+     * @param written number of preferences files written
+     * @param skipped number of preferences files left alone
+     * @param bytes number of bytes written
+     * @param startNanos {@link System#nanoTime()} at the start of the update, or 0 if unknown
+     * @param detail further information (e.g. a failure message), or null
+     */
+    void report(String kind, Path path, Status status, int written, int skipped, long bytes,
+        long startNanos, String detail)
+    {
+        report(kind, path, status, written, null, skipped, bytes, startNanos, detail);
+    }
+
+    /**
+     * Records the outcome of a single workspace or project, along with the names of the files
+     * written (or to be written, for a plan).
+     *
+     * @param kind what the path is (Workspace/Project)
+     * @param path workspace or project path
+     * @param status outcome
+     * @param files names of the preferences files written
+     * @param skipped number of preferences files left alone
+     * @param bytes number of bytes written
+     * @param startNanos {@link System#nanoTime()} at the start of the update, or 0 if unknown
+     * @param detail further information (e.g. a failure message), or null
+     */
+    void report(String kind, Path path, Status status, List<String> files, int skipped,
+        long bytes, long startNanos, String detail)
+    {
+        report(kind, path, status, files.size(), files, skipped, bytes, startNanos, detail);
+    }
+
+    private void report(String kind, Path path, Status status, int written, List<String> files,
+        int skipped, long bytes, long startNanos, String detail)
+    {
+        if (records == null)
+        {
+            if (status == Status.UPDATED)
+            {
+                out.println("Successfully updated " + kind + " preferences: " + path);
+            }
+            else if (status == Status.PLANNED)
+            {
+                out.println("Would update " + kind + " preferences: " + path
+                    + (files != null ? " (" + String.join(", ", files) + ")" : ""));
+            }
+            return;
+        }
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", kind.toLowerCase());
+        record.put("path", path.toString());
+        record.put("status", status.name());
+        record.put("written", written);
+        if (files != null)
+        {
+            record.put("files", files);
+        }
+        record.put("skipped", skipped);
+        record.put("bytes", bytes);
+        if (startNanos != 0)
+        {
+            record.put("millis",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+        if (detail != null)
+        {
+            record.put("detail", detail);
+        }
+        records.write(record);
+    }
+
+    /**
+     * @return stream for the human readable summary of a run, which must not end up in between
+     *         JSON records
+     */
+    PrintStream getSummaryStream()
+    {
+        return records != null ? System.err : out;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (records != null)
+        {
+            records.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retry policy for file operations: transient failures (e.g. {@code ESTALE} on a network mount)
+ * are retried with exponential backoff and full jitter, while a retry budget shared by the whole
+ * run keeps a failing file server from being hammered.
+ */
+final class Retry
+{
+    private static final long BASE_DELAY_MILLIS = 100;
+    private static final long MAX_DELAY_MILLIS = 5000;
+    /** Errors of the operating system that a retry may get past, e.g. on a network mount. */
+    private static final Set<String> TRANSIENT_ERRORS = new HashSet<>(Arrays.asList(
+        "Stale file handle", "Input/output error", "Connection timed out",
+        "Resource temporarily unavailable", "Device or resource busy", "Interrupted system call",
+        "Connection reset by peer", "Host is down", "No route to host"));
+    /** Errors of the operating system that a retry cannot get past. */
+    private static final Set<String> PERMANENT_ERRORS = new HashSet<>(Arrays.asList(
+        "No space left on device", "Disk quota exceeded", "Read-only file system",
+        "File name too long", "Too many levels of symbolic links", "Is a directory"));
+
+    /** A file operation. */
+    interface Action
+    {
+        void run() throws IOException;
+    }
+
+    /** A file operation with a result, e.g. a read. */
+    interface Call<T>
+    {
+        T call() throws IOException;
+    }
+
+    private final int attempts;
+    private final AtomicInteger budget;
+    private final AtomicInteger retries = new AtomicInteger();
+
+    /**
+     * @param retries maximum number of retries of a single operation
+     * @param budget maximum number of retries in total
+     */
+    Retry(int retries, int budget)
+    {
+        this.attempts = Math.max(0, retries) + 1;
+        this.budget = new AtomicInteger(Math.max(0, budget));
+    }
+
+    /**
+     * Runs an operation, retrying it upon transient failures.
+     *
+     * @param action the operation
+     * @throws IOException the last failure, once the operation or the budget is out of retries
+     */
+    void run(Action action) throws IOException
+    {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an operation with a result, retrying it upon transient failures.
+     *
+     * @param operation the operation
+     * @return its result
+     * @throws IOException the last failure, once the operation or the budget is out of retries
+     */
+    <T> T call(Call<T> operation) throws IOException
+    {
+        for (int attempt = 1;; attempt++)
+        {
+            try
+            {
+                return operation.call();
+            }
+            catch (IOException e)
+            {
+                if (attempt >= attempts || !isRetryable(e) || budget.getAndDecrement() <= 0)
+                {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                long cap = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempt - 1));
+                try
+                {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+                }
+                catch (InterruptedException interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of retries made so far
+     */
+    int getRetries()
+    {
+        return retries.get();
+    }
+
+    /**
+     * Tells whether a failure may go away on its own: a socket timeout, a file system error other
+     * than a missing file, a permission problem or a full disk, or an I/O error of the operating
+     * system known to be transient (e.g. {@code ESTALE}). Anything else, notably malformed files
+     * and interruptions (e.g. by a deadline), fails right away.
+     *
+     * @param e the failure
+     * @return true if the operation is worth retrying
+     */
+    static boolean isRetryable(IOException e)
+    {
+        if (Thread.currentThread().isInterrupted())
+        {
+            return false;
+        }
+        if (e instanceof SocketTimeoutException)
+        {
+            return true;
+        }
+        if (e instanceof FileSystemException)
+        {
+            return !(e instanceof NoSuchFileException
+                || e instanceof AccessDeniedException
+                || e instanceof FileAlreadyExistsException
+                || e instanceof NotDirectoryException
+                || e instanceof DirectoryNotEmptyException
+                || PERMANENT_ERRORS.contains(((FileSystemException) e).getReason()));
+        }
+        // streams and channels report errors of the operating system as plain IOExceptions
+        return e.getClass() == IOException.class && TRANSIENT_ERRORS.contains(e.getMessage());
+    }
+}
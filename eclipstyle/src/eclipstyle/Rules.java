@@ -0,0 +1,295 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rules selecting the source of each workspace by its path. A rules file holds one rule per line:
+ * a pattern, then the source and optionally further layers stacked on top of it, e.g.
+ * <pre>
+ * glob:*&#47;android-*    /profiles/android
+ * regex:.*&#47;legacy-\d+ /profiles/base /profiles/legacy
+ * </pre>
+ * Globs ({@code glob:} may be omitted) match the trailing components of a workspace path, regexes
+ * the whole path; paths are matched with {@code /} separators. The first matching rule wins.
+ * Relative sources are resolved against the directory of the rules file.
+ * <p>
+ * All rules are compiled into a single pattern, so resolving a workspace takes one match rather
+ * than one per rule. Regexes therefore may not use named groups or backreferences, which would
+ * clash or count groups differently there.
+ */
+final class Rules
+{
+    /** A rule: the sources of the workspaces matching a pattern. */
+    static final class Rule
+    {
+        private final Path source;
+        private final List<Path> layers;
+
+        private Rule(Path source, List<Path> layers)
+        {
+            this.source = source;
+            this.layers = layers;
+        }
+
+        Path getSource()
+        {
+            return source;
+        }
+
+        List<Path> getLayers()
+        {
+            return layers;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final Pattern matcher;
+    private final int[] markers;
+
+    private Rules(List<Rule> rules, Pattern matcher, int[] markers)
+    {
+        this.rules = rules;
+        this.matcher = matcher;
+        this.markers = markers;
+    }
+
+    /**
+     * Loads a rules file.
+     *
+     * @param file rules file
+     * @return compiled rules
+     * @throws IOException upon failure to read the file, or an invalid rule
+     */
+    static Rules load(Path file) throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        List<Rule> rules = new ArrayList<>();
+        StringBuilder combined = new StringBuilder("(?:");
+        List<Integer> markers = new ArrayList<>();
+        List<Integer> ruleLines = new ArrayList<>();
+        List<Integer> ruleEnds = new ArrayList<>();
+        int groups = 0;
+        List<String> lines = Files.readAllLines(file);
+        for (int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            List<String> fields = Eclipstyle.splitArgs(line);
+            if (fields.size() < 2)
+            {
+                throw new IOException(file + ":" + (i + 1) + ": expected <pattern> <source>");
+            }
+            String pattern = fields.get(0);
+            String regex;
+            try
+            {
+                if (pattern.startsWith("regex:"))
+                {
+                    regex = pattern.substring("regex:".length());
+                }
+                else
+                {
+                    String glob = pattern.startsWith("glob:")
+                        ? pattern.substring("glob:".length())
+                        : pattern;
+                    regex = "(?:.*/)?" + globToRegex(glob);
+                }
+                String unsupported = findUnsupported(regex);
+                if (unsupported != null)
+                {
+                    throw new IOException(file + ":" + (i + 1) + ": " + unsupported
+                        + " not supported in rules");
+                }
+                // compiled as it is combined, so that e.g. an unterminated \Q fails here
+                groups += Pattern.compile("(?:" + regex + ")").matcher("").groupCount();
+            }
+            catch (PatternSyntaxException e)
+            {
+                throw new IOException(file + ":" + (i + 1) + ": " + e.getDescription());
+            }
+            if (!rules.isEmpty())
+            {
+                combined.append('|');
+            }
+            // an empty group after each alternative tells which rule matched
+            combined.append("(?:").append(regex).append(")()");
+            markers.add(++groups);
+            ruleLines.add(i + 1);
+            ruleEnds.add(combined.length());
+
+            List<Path> sources = new ArrayList<>();
+            for (String source : fields.subList(1, fields.size()))
+            {
+                sources.add(dir.resolve(source));
+            }
+            rules.add(new Rule(sources.get(0),
+                Collections.unmodifiableList(sources.subList(1, sources.size()))));
+        }
+        int[] markerGroups = new int[markers.size()];
+        for (int i = 0; i < markerGroups.length; i++)
+        {
+            markerGroups[i] = markers.get(i);
+        }
+        Pattern matcher;
+        try
+        {
+            matcher = Pattern.compile(combined.append(')').toString());
+        }
+        catch (PatternSyntaxException e)
+        {
+            // blame the rule the error falls into
+            int rule = 0;
+            while (rule < ruleEnds.size() - 1 && ruleEnds.get(rule) <= e.getIndex())
+            {
+                rule++;
+            }
+            throw new IOException(file + ":" + ruleLines.get(rule) + ": " + e.getDescription());
+        }
+        return new Rules(Collections.unmodifiableList(rules), matcher, markerGroups);
+    }
+
+    /**
+     * Looks for the constructs a rule may not use in the combined pattern.
+     *
+     * @param regex regex of a rule
+     * @return a description of the first one found, or null if there is none
+     */
+    private static String findUnsupported(String regex)
+    {
+        for (int i = 0; i < regex.length(); i++)
+        {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length())
+            {
+                char next = regex.charAt(++i);
+                if (next == 'Q')
+                {
+                    int end = regex.indexOf("\\E", i);
+                    i = end < 0 ? regex.length() : end + 1;
+                }
+                else if (next >= '1' && next <= '9' || next == 'k')
+                {
+                    return "backreference '\\" + next + "'";
+                }
+            }
+            else if (regex.startsWith("(?<", i) && i + 3 < regex.length()
+                && regex.charAt(i + 3) != '=' && regex.charAt(i + 3) != '!')
+            {
+                return "named group";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the rules, in file order
+     */
+    List<Rule> getRules()
+    {
+        return rules;
+    }
+
+    /**
+     * Finds the first rule matching a workspace.
+     *
+     * @param ws workspace path
+     * @return index of the rule, or -1 if no rule matches
+     */
+    int match(Path ws)
+    {
+        if (rules.isEmpty())
+        {
+            return -1;
+        }
+        String path = ws.toAbsolutePath().normalize().toString().replace('\\', '/');
+        Matcher m = matcher.matcher(path);
+        if (!m.matches())
+        {
+            return -1;
+        }
+        for (int i = 0; i < markers.length; i++)
+        {
+            if (m.start(markers[i]) >= 0)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Translates a glob into a regex: {@code **} matches across directories, {@code *} and
+     * {@code ?} within one; {@code [...]} and {@code {a,b}} work as in
+     * {@link java.nio.file.FileSystem#getPathMatcher}.
+     */
+    private static String globToRegex(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            switch (c)
+            {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*')
+                    {
+                        regex.append(".*");
+                        i++;
+                    }
+                    else
+                    {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int close = glob.indexOf(']', i + 1);
+                    if (close < 0)
+                    {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, close);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set)
+                        .append(']');
+                    i = close;
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length())
+                    {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Character.isLetterOrDigit(c) || c == '/' ? String.valueOf(c)
+                        : Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
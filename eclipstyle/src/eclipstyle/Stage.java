@@ -0,0 +1,179 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of a pipeline: a bounded queue drained by a pool of its own threads. A full queue
+ * blocks whoever feeds the stage, so that a slow stage holds back the stages before it instead of
+ * letting items pile up in memory.
+ *
+ * @param <T> item type
+ */
+final class Stage<T> implements AutoCloseable
+{
+    /** Work to do for one item. */
+    interface Handler<T>
+    {
+        void handle(T item) throws IOException;
+    }
+
+    /** Callback for items whose handler failed. */
+    interface Failure<T>
+    {
+        void failed(T item, IOException e);
+    }
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Handler<T> handler;
+    private final Failure<T> failure;
+    private final Thread[] threads;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final long started = System.nanoTime();
+
+    /**
+     * @param name stage name
+     * @param threads number of threads handling items
+     * @param capacity maximum number of items waiting
+     * @param handler work to do for each item
+     * @param failure callback for items whose handler failed
+     */
+    Stage(String name, int threads, int capacity, Handler<T> handler, Failure<T> failure)
+    {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.handler = handler;
+        this.failure = failure;
+        this.threads = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < this.threads.length; i++)
+        {
+            this.threads[i] = DeadlineExecutor.daemon("eclipstyle-" + name).newThread(this::drain);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Queues an item, waiting for room if the queue is full.
+     *
+     * @param item the item
+     * @throws IOException if interrupted while waiting
+     */
+    void put(T item) throws IOException
+    {
+        pending.incrementAndGet();
+        try
+        {
+            queue.put(item);
+        }
+        catch (InterruptedException e)
+        {
+            done();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        int depth = queue.size();
+        for (int max = maxDepth.get(); depth > max && !maxDepth.compareAndSet(max, depth);)
+        {
+            max = maxDepth.get();
+        }
+    }
+
+    /**
+     * Waits until every queued item has been handled.
+     *
+     * @throws IOException if interrupted while waiting
+     */
+    void awaitIdle() throws IOException
+    {
+        synchronized (pending)
+        {
+            while (pending.get() > 0)
+            {
+                try
+                {
+                    pending.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of items handled, throughput, peak and current queue depth, and the share of
+     *         time the stage threads were busy
+     */
+    String getStats()
+    {
+        double seconds = Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+        long items = processed.sum();
+        return String.format("%-8s %8d items %8.0f/s  queue %d/%d (peak %d)  busy %3.0f%%",
+            name, items, items / seconds, queue.size(), queue.size() + queue.remainingCapacity(),
+            maxDepth.get(), 100 * busyNanos.sum() / 1e9 / seconds / threads.length);
+    }
+
+    @Override
+    public void close()
+    {
+        for (Thread thread : threads)
+        {
+            thread.interrupt();
+        }
+    }
+
+    private void drain()
+    {
+        while (true)
+        {
+            T item;
+            try
+            {
+                item = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            long start = System.nanoTime();
+            try
+            {
+                handler.handle(item);
+            }
+            catch (IOException e)
+            {
+                failure.failed(item, e);
+            }
+            catch (RuntimeException e)
+            {
+                failure.failed(item, new IOException(e.toString(), e));
+            }
+            finally
+            {
+                busyNanos.add(System.nanoTime() - start);
+                processed.increment();
+                done();
+            }
+        }
+    }
+
+    private void done()
+    {
+        if (pending.decrementAndGet() == 0)
+        {
+            synchronized (pending)
+            {
+                pending.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mean latency of file operations per file store (i.e. per mount), as measured during a run.
+ * Workspaces spread over local disks and network mounts can differ in write cost by orders of
+ * magnitude, so cost estimates are made per store.
+ */
+final class StoreLatency
+{
+    private static final boolean UNIX =
+        FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final Map<Object, String> stores = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> totals = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    /**
+     * Finds the file store of a workspace. Where the device of a file is known (on Unix), stores
+     * are looked up once per device, since siblings may well sit on different mounts (e.g. home
+     * directories); elsewhere they are looked up for every workspace.
+     *
+     * @param ws workspace path
+     * @return file store name
+     * @throws IOException upon failure to look up the store
+     */
+    String storeOf(Path ws) throws IOException
+    {
+        if (!UNIX)
+        {
+            return Files.getFileStore(ws).toString();
+        }
+        Object device = Files.getAttribute(ws, "unix:dev");
+        String store = stores.get(device);
+        if (store == null)
+        {
+            store = Files.getFileStore(ws).toString();
+            stores.put(device, store);
+        }
+        return store;
+    }
+
+    /**
+     * Records the latency of a single operation.
+     *
+     * @param store file store name
+     * @param nanos latency in nanoseconds
+     */
+    void record(String store, long nanos)
+    {
+        totals.computeIfAbsent(store, s -> new LongAdder()).add(nanos);
+        counts.computeIfAbsent(store, s -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return mean latency in nanoseconds per file store, for every store with samples
+     */
+    Map<String, Long> getMeans()
+    {
+        Map<String, Long> means = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> count : counts.entrySet())
+        {
+            long n = count.getValue().sum();
+            if (n > 0)
+            {
+                means.put(count.getKey(), totals.get(count.getKey()).sum() / n);
+            }
+        }
+        return means;
+    }
+}
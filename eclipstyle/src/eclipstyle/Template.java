@@ -0,0 +1,260 @@
+package eclipstyle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Placeholders in a preferences file, e.g. {@code ${user.home}} (a Java system property) or
+ * {@code ${env:JAVA_HOME}} (an environment variable), so that a shared profile can hold paths that
+ * differ per host or user. The file is scanned once; rendering copies the bytes between
+ * placeholders as they are and only writes the resolved values. Placeholders that do not resolve,
+ * such as Eclipse's own {@code ${workspace_loc}}, are kept verbatim.
+ * <p>
+ * Placeholders are resolved for the owner of each target: {@code user.name} and
+ * {@code user.home} are the owner's (the home directory from {@code /etc/passwd}), while the
+ * environment and the other system properties are only known for the user running eclipstyle.
+ * A placeholder that cannot be resolved for the owner fails the target rather than getting the
+ * value of another user.
+ */
+final class Template
+{
+    /** Resolves a placeholder name. */
+    interface Resolver
+    {
+        /**
+         * @param name placeholder name
+         * @return its value, or null to keep the placeholder
+         * @throws IOException if the placeholder must not be kept, but cannot be resolved
+         */
+        String resolve(String name) throws IOException;
+    }
+
+    private static final byte[] OPEN = {'$', '{'};
+
+    /** System properties a placeholder may name; others could leak details of the host. */
+    private static final Set<String> PROPERTIES =
+        new HashSet<>(Arrays.asList("user.home", "user.name", "java.home"));
+
+    private final byte[] data;
+    private final int[] starts;
+    private final int[] ends;
+    private final String[] names;
+
+    private Template(byte[] data, int[] starts, int[] ends, String[] names)
+    {
+        this.data = data;
+        this.starts = starts;
+        this.ends = ends;
+        this.names = names;
+    }
+
+    /**
+     * Finds the placeholders of a preferences file.
+     *
+     * @param data contents of the preferences file
+     * @return template of the file
+     */
+    static Template compile(byte[] data)
+    {
+        List<int[]> found = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = indexOf(data, 0); i >= 0; i = indexOf(data, i + OPEN.length))
+        {
+            int end = i + OPEN.length;
+            while (end < data.length && isNameByte(data[end]))
+            {
+                end++;
+            }
+            if (end < data.length && data[end] == '}' && end > i + OPEN.length)
+            {
+                found.add(new int[] {i, end + 1});
+                // Eclipse saves ':' in values as '\:'
+                names.add(new String(data, i + OPEN.length, end - i - OPEN.length,
+                    StandardCharsets.ISO_8859_1).replace("\\", ""));
+            }
+        }
+        int[] starts = new int[found.size()];
+        int[] ends = new int[found.size()];
+        for (int i = 0; i < starts.length; i++)
+        {
+            starts[i] = found.get(i)[0];
+            ends[i] = found.get(i)[1];
+        }
+        return new Template(data, starts, ends, names.toArray(new String[0]));
+    }
+
+    /**
+     * @return true if some placeholder may resolve, i.e. rendering may change the file
+     */
+    boolean isResolvable()
+    {
+        for (String name : names)
+        {
+            if (name.startsWith("env:") || PROPERTIES.contains(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves the placeholders.
+     *
+     * @param resolver resolves each placeholder name
+     * @return contents of the preferences file with resolved placeholders; the original contents
+     *         if nothing resolved
+     * @throws IOException if a placeholder cannot be resolved
+     */
+    byte[] render(Resolver resolver) throws IOException
+    {
+        ByteArrayOutputStream out = null;
+        int copied = 0;
+        for (int i = 0; i < names.length; i++)
+        {
+            String value = resolver.resolve(names[i]);
+            if (value == null)
+            {
+                continue;
+            }
+            if (out == null)
+            {
+                out = new ByteArrayOutputStream(data.length + 64);
+            }
+            out.write(data, copied, starts[i] - copied);
+            byte[] escaped = escape(value).getBytes(StandardCharsets.ISO_8859_1);
+            out.write(escaped, 0, escaped.length);
+            copied = ends[i];
+        }
+        if (out == null)
+        {
+            return data;
+        }
+        out.write(data, copied, data.length - copied);
+        return out.toByteArray();
+    }
+
+    /**
+     * Resolves a placeholder for the owner of a target.
+     *
+     * @param name placeholder name
+     * @param owner name of the user owning the target
+     * @return its value, or null if undefined or not allowed
+     * @throws IOException if the placeholder depends on the user, and cannot be resolved for the
+     *         owner
+     */
+    static String resolve(String name, String owner) throws IOException
+    {
+        String self = System.getProperty("user.name");
+        if (owner.equals(self) || owner.endsWith("\\" + self))
+        {
+            // this user: the environment and system properties of this JVM
+            if (name.startsWith("env:"))
+            {
+                return System.getenv(name.substring("env:".length()));
+            }
+            return PROPERTIES.contains(name) ? System.getProperty(name) : null;
+        }
+        if (name.equals("user.name"))
+        {
+            return owner;
+        }
+        if (name.equals("user.home"))
+        {
+            String home = Homes.HOMES.get(owner);
+            if (home == null)
+            {
+                throw new IOException("No home directory known for user " + owner
+                    + ", to resolve ${user.home}");
+            }
+            return home;
+        }
+        if (name.startsWith("env:") || PROPERTIES.contains(name))
+        {
+            throw new IOException("${" + name + "} only resolves for targets of user " + self
+                + ", not of " + owner);
+        }
+        return null;
+    }
+
+    /** Home directories of the users in {@code /etc/passwd}, read on first use. */
+    private static final class Homes
+    {
+        private static final Map<String, String> HOMES = load();
+
+        private static Map<String, String> load()
+        {
+            Map<String, String> homes = new HashMap<>();
+            try
+            {
+                for (String line : Files.readAllLines(Paths.get("/etc/passwd")))
+                {
+                    // name:password:uid:gid:gecos:home:shell
+                    String[] fields = line.split(":", -1);
+                    if (fields.length >= 7 && !line.startsWith("#"))
+                    {
+                        homes.putIfAbsent(fields[0], fields[5]);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // no user database (e.g. on Windows): only the running user resolves
+            }
+            return homes;
+        }
+    }
+
+    /**
+     * Escapes a value the way {@link java.util.Properties#store} does, e.g. for Windows paths.
+     */
+    private static String escape(String value)
+    {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\\' || c == ':' || c == '=' || c == '#' || c == '!')
+            {
+                escaped.append('\\').append(c);
+            }
+            else if (c < 0x20 || c > 0x7e)
+            {
+                escaped.append(String.format("\\u%04X", (int) c));
+            }
+            else
+            {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isNameByte(byte b)
+    {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+            || b == '.' || b == '_' || b == '-' || b == ':' || b == '\\';
+    }
+
+    private static int indexOf(byte[] data, int from)
+    {
+        for (int i = from; i < data.length - 1; i++)
+        {
+            if (data[i] == OPEN[0] && data[i + 1] == OPEN[1])
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
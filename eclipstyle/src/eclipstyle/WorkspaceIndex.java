@@ -0,0 +1,331 @@
+package eclipstyle;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * On-disk index of known workspaces, so that repeated runs neither rescan unchanged parent
+ * directories nor rewrite workspaces that already hold the current preferences.
+ * <p>
+ * For every parent directory the index keeps its modification time and its entries, each with
+ * its own modification time, whether it is a workspace, and for workspaces the digest of the
+ * preferences last written and the resulting {@link #stamp stamp}. It also keeps the mean latency
+ * of writing a preferences file, per file store, as measured by the last clone.
+ */
+final class WorkspaceIndex
+{
+    private static final String HEADER = "# eclipstyle workspace index v1";
+    private static final String NO_DIGEST = "-";
+
+    private static final class Entry
+    {
+        long mtime;
+        boolean workspace;
+        long stamp;
+        String digest = NO_DIGEST;
+    }
+
+    private final Path file;
+    private final Map<Path, Long> parents = new ConcurrentHashMap<>();
+    private final Map<Path, Map<Path, Entry>> entries = new ConcurrentHashMap<>();
+    private final Map<String, Long> writeLatencies = new ConcurrentHashMap<>();
+
+    private WorkspaceIndex(Path file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Loads an index file, or starts an empty index if the file does not exist yet.
+     *
+     * @param file index file
+     * @return workspace index
+     * @throws IOException upon failure to read the index file
+     */
+    static WorkspaceIndex load(Path file) throws IOException
+    {
+        WorkspaceIndex index = new WorkspaceIndex(file);
+        if (!Files.exists(file))
+        {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            if (!HEADER.equals(reader.readLine()))
+            {
+                throw new IOException("Not a workspace index: " + file);
+            }
+            Map<Path, Entry> dirs = null;
+            for (String line; (line = reader.readLine()) != null;)
+            {
+                String[] fields = line.split(" ", line.startsWith("W ") ? 6 : 3);
+                if (fields[0].equals("L"))
+                {
+                    index.writeLatencies.put(fields[2], Long.parseLong(fields[1]));
+                }
+                else if (fields[0].equals("R"))
+                {
+                    Path parent = Paths.get(fields[2]);
+                    index.parents.put(parent, Long.parseLong(fields[1]));
+                    dirs = new ConcurrentSkipListMap<>();
+                    index.entries.put(parent, dirs);
+                }
+                else if (fields[0].equals("W") && dirs != null)
+                {
+                    Entry entry = new Entry();
+                    entry.mtime = Long.parseLong(fields[1]);
+                    entry.workspace = fields[2].equals("1");
+                    entry.stamp = Long.parseLong(fields[3]);
+                    entry.digest = fields[4];
+                    dirs.put(Paths.get(fields[5]), entry);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Corrupt workspace index " + file + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index back to its file, replacing it atomically.
+     *
+     * @throws IOException upon failure to write the index file
+     */
+    void save() throws IOException
+    {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+        {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Long> latency : new TreeMap<>(writeLatencies).entrySet())
+            {
+                writer.write("L " + latency.getValue() + " " + latency.getKey());
+                writer.newLine();
+            }
+            for (Map.Entry<Path, Long> parent : new TreeMap<>(parents).entrySet())
+            {
+                writer.write("R " + parent.getValue() + " " + parent.getKey());
+                writer.newLine();
+                for (Map.Entry<Path, Entry> dir : entries.get(parent.getKey()).entrySet())
+                {
+                    Entry entry = dir.getValue();
+                    writer.write("W " + entry.mtime + " " + (entry.workspace ? 1 : 0) + " "
+                        + entry.stamp + " " + entry.digest + " " + dir.getKey());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the entries of a parent directory that may be workspaces. The parent is only listed
+     * again if its modification time changed. Its entries are not stat'ed here, since a hung mount
+     * among them would hang the caller; see {@link #isWorkspace}.
+     *
+     * @param parentDir parent directory
+     * @return a registry of the entries
+     * @throws IOException upon failure to list the parent directory
+     */
+    WorkspaceRegistry getCandidates(Path parentDir) throws IOException
+    {
+        long mtime = Files.getLastModifiedTime(parentDir).toMillis();
+        Map<Path, Entry> dirs = entries.get(parentDir);
+        if (dirs == null || parents.get(parentDir) != mtime)
+        {
+            Map<Path, Entry> known = dirs;
+            dirs = new ConcurrentSkipListMap<>();
+            try (DirectoryStream<Path> subDirs = Files.newDirectoryStream(parentDir))
+            {
+                for (Path subDir : subDirs)
+                {
+                    Entry entry = known != null ? known.get(subDir) : null;
+                    dirs.put(subDir, entry != null ? entry : new Entry());
+                }
+            }
+            catch (DirectoryIteratorException e)
+            {
+                throw e.getCause();
+            }
+            entries.put(parentDir, dirs);
+            parents.put(parentDir, mtime);
+        }
+
+        WorkspaceRegistry.Builder candidates = new WorkspaceRegistry.Builder();
+        dirs.keySet().forEach(candidates::add);
+        return candidates.build();
+    }
+
+    /**
+     * Tells whether an entry returned by {@link #getCandidates} is a workspace. The entry is
+     * re-stat'ed, and only checked again if its modification time changed; entries that are gone
+     * are dropped from the index.
+     *
+     * @param dir entry of a parent directory
+     * @param isWorkspace tells whether a directory is a workspace
+     * @return true if the entry is a workspace
+     * @throws IOException upon failure to stat the entry
+     */
+    boolean isWorkspace(Path dir, Predicate<Path> isWorkspace) throws IOException
+    {
+        Map<Path, Entry> dirs = entries.get(dir.getParent());
+        Entry entry = dirs != null ? dirs.get(dir) : null;
+        if (entry == null)
+        {
+            return isWorkspace.test(dir);
+        }
+        long mtime;
+        try
+        {
+            mtime = Files.getLastModifiedTime(dir).toMillis();
+        }
+        catch (NoSuchFileException e)
+        {
+            dirs.remove(dir);
+            return false;
+        }
+        if (mtime != entry.mtime)
+        {
+            entry.mtime = mtime;
+            entry.workspace = isWorkspace.test(dir);
+        }
+        return entry.workspace;
+    }
+
+    /**
+     * Tells whether a workspace still holds the preferences last written into it.
+     *
+     * @param ws workspace path
+     * @param digest digest of the preferences to write
+     * @param stamp current stamp of the workspace settings
+     * @return true if the workspace can be skipped
+     */
+    boolean isCurrent(Path ws, String digest, long stamp)
+    {
+        Entry entry = getEntry(ws);
+        return entry != null && entry.digest.equals(digest) && entry.stamp == stamp;
+    }
+
+    /**
+     * Records the preferences just written into a workspace.
+     *
+     * @param ws workspace path
+     * @param digest digest of the preferences written
+     * @param stamp stamp of the workspace settings after writing
+     */
+    void update(Path ws, String digest, long stamp)
+    {
+        Entry entry = getEntry(ws);
+        if (entry != null)
+        {
+            entry.digest = digest;
+            entry.stamp = stamp;
+        }
+    }
+
+    /**
+     * @param store file store name
+     * @return mean latency in nanoseconds of writing a preferences file to the store, as measured
+     *         by the last clone, or -1 if unknown
+     */
+    long getWriteLatency(String store)
+    {
+        Long latency = writeLatencies.get(store);
+        return latency != null ? latency : -1;
+    }
+
+    /**
+     * Records the write latencies measured by a clone. Stores not written to keep their previous
+     * latency.
+     *
+     * @param latencies mean latency in nanoseconds per file store
+     */
+    void updateWriteLatencies(Map<String, Long> latencies)
+    {
+        writeLatencies.putAll(latencies);
+    }
+
+    private Entry getEntry(Path ws)
+    {
+        Map<Path, Entry> dirs = entries.get(ws.getParent());
+        return dirs != null ? dirs.get(ws) : null;
+    }
+
+    /**
+     * Computes the stamp of a settings directory: the latest modification time among the
+     * directory and the given preferences files.
+     *
+     * @param settings settings directory
+     * @param prefsNames names of the preferences files
+     * @return settings stamp
+     * @throws IOException upon failure to stat the directory
+     */
+    static long stamp(Path settings, Collection<String> prefsNames) throws IOException
+    {
+        long stamp = Files.getLastModifiedTime(settings).toMillis();
+        for (String prefsName : prefsNames)
+        {
+            try
+            {
+                stamp = Math.max(stamp,
+                    Files.getLastModifiedTime(settings.resolve(prefsName)).toMillis());
+            }
+            catch (NoSuchFileException e)
+            {
+                continue;
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Computes a digest over a set of preferences files, names included.
+     *
+     * @param prefs contents of the preferences files, keyed by name
+     * @return hex encoded SHA-256 digest
+     */
+    static String digest(Map<String, byte[]> prefs)
+    {
+        try
+        {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, byte[]> entry : new TreeMap<>(prefs).entrySet())
+            {
+                sha.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(entry.getValue());
+                sha.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha.digest())
+            {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package eclipstyle;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Detects workspaces held open by a running Eclipse, which keeps an exclusive lock on
+ * {@code .metadata/.lock} for as long as the workspace is open.
+ */
+final class WorkspaceLock
+{
+    private static final String LOCK_FILE = ".metadata/.lock";
+
+    /** Probes run on daemon threads, so that a probe stuck on a stale lock never blocks exit. */
+    private static final ExecutorService PROBES = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "eclipstyle-lock-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private WorkspaceLock()
+    {
+    }
+
+    /**
+     * Probes the locks of a number of workspaces concurrently.
+     *
+     * @param workspaces workspaces to probe
+     * @param timeoutMillis time to wait for all probes; workspaces whose probe has not completed
+     *        by then are reported as locked
+     * @return workspaces that are locked, or whose lock state could not be determined in time
+     */
+    static Set<Path> findLocked(Iterable<Path> workspaces, long timeoutMillis)
+    {
+        Map<Path, Future<Boolean>> probes = new LinkedHashMap<>();
+        for (Path ws : workspaces)
+        {
+            probes.put(ws, PROBES.submit(() -> isLocked(ws)));
+        }
+        Set<Path> locked = new HashSet<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Map.Entry<Path, Future<Boolean>> probe : probes.entrySet())
+        {
+            try
+            {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                if (probe.getValue().get(remaining, TimeUnit.NANOSECONDS))
+                {
+                    locked.add(probe.getKey());
+                }
+            }
+            catch (TimeoutException e)
+            {
+                probe.getValue().cancel(true);
+                locked.add(probe.getKey());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                locked.add(probe.getKey());
+            }
+            catch (ExecutionException e)
+            {
+                continue;
+            }
+        }
+        return locked;
+    }
+
+    /**
+     * Tells whether a workspace is locked. A workspace without a lock file, or whose lock cannot
+     * be probed (e.g. file systems without lock support), counts as unlocked.
+     *
+     * @param ws workspace path
+     * @return true if another process holds the workspace lock
+     */
+    static boolean isLocked(Path ws)
+    {
+        try (FileChannel channel = FileChannel.open(
+            ws.resolve(LOCK_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            FileLock lock = channel.tryLock();
+            if (lock == null)
+            {
+                return true;
+            }
+            lock.release();
+            return false;
+        }
+        catch (OverlappingFileLockException e)
+        {
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package eclipstyle;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+/**
+ * Compact, sorted set of workspace paths. Paths are kept as front-coded UTF-8 in a single byte
+ * buffer (each entry stores the length of the prefix it shares with the previous one, followed by
+ * the remaining bytes), and {@link Path} objects are only created while iterating.
+ */
+final class WorkspaceRegistry implements Iterable<Path>
+{
+    private final byte[] buffer;
+    private final int length;
+    private final int size;
+
+    private WorkspaceRegistry(byte[] buffer, int length, int size)
+    {
+        this.buffer = buffer;
+        this.length = length;
+        this.size = size;
+    }
+
+    /**
+     * @return number of workspaces in the registry
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return true if the registry holds no workspace
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Path> iterator()
+    {
+        return new Iterator<Path>()
+        {
+            private byte[] current = new byte[256];
+            private int position;
+
+            @Override
+            public boolean hasNext()
+            {
+                return position < length;
+            }
+
+            @Override
+            public Path next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                int shared = readVarInt();
+                int suffix = readVarInt();
+                if (shared + suffix > current.length)
+                {
+                    current = Arrays.copyOf(current, Math.max(shared + suffix, 2 * current.length));
+                }
+                System.arraycopy(buffer, position, current, shared, suffix);
+                position += suffix;
+                return Paths.get(new String(current, 0, shared + suffix, StandardCharsets.UTF_8));
+            }
+
+            private int readVarInt()
+            {
+                int value = 0;
+                for (int shift = 0;; shift += 7)
+                {
+                    byte b = buffer[position++];
+                    value |= (b & 0x7f) << shift;
+                    if (b >= 0)
+                    {
+                        return value;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Collects workspace paths in any order and builds the registry from them.
+     */
+    static final class Builder
+    {
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream(4096);
+        private int[] offsets = new int[64];
+        private int count;
+
+        /**
+         * Adds a workspace path; duplicates are dropped when building.
+         *
+         * @param ws workspace path
+         * @return this builder
+         */
+        synchronized Builder add(Path ws)
+        {
+            if (count + 1 >= offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            byte[] bytes = ws.toString().getBytes(StandardCharsets.UTF_8);
+            offsets[count++] = raw.size();
+            raw.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * @return a registry holding the paths added so far, in sorted order
+         */
+        synchronized WorkspaceRegistry build()
+        {
+            byte[] bytes = raw.toByteArray();
+            offsets[count] = bytes.length;
+            int[] order = IntStream.range(0, count).boxed()
+                .sorted((a, b) -> compare(bytes, a, b))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            int size = 0;
+            int previous = -1;
+            for (int i : order)
+            {
+                int start = offsets[i];
+                int len = offsets[i + 1] - start;
+                int shared = 0;
+                if (previous >= 0)
+                {
+                    int prevStart = offsets[previous];
+                    int prevLen = offsets[previous + 1] - prevStart;
+                    int max = Math.min(len, prevLen);
+                    while (shared < max && bytes[start + shared] == bytes[prevStart + shared])
+                    {
+                        shared++;
+                    }
+                    if (shared == len && len == prevLen)
+                    {
+                        continue;
+                    }
+                }
+                writeVarInt(out, shared);
+                writeVarInt(out, len - shared);
+                out.write(bytes, start + shared, len - shared);
+                previous = i;
+                size++;
+            }
+            return new WorkspaceRegistry(out.toByteArray(), out.size(), size);
+        }
+
+        private int compare(byte[] bytes, int a, int b)
+        {
+            int i = offsets[a];
+            int j = offsets[b];
+            int endA = offsets[a + 1];
+            int endB = offsets[b + 1];
+            for (; i < endA && j < endB; i++, j++)
+            {
+                int diff = (bytes[i] & 0xff) - (bytes[j] & 0xff);
+                if (diff != 0)
+                {
+                    return diff;
+                }
+            }
+            return (endA - offsets[a]) - (endB - offsets[b]);
+        }
+
+        private static void writeVarInt(ByteArrayOutputStream out, int value)
+        {
+            while ((value & ~0x7f) != 0)
+            {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package eclipstyle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BundleTest
+{
+    private static final String JDT_CORE = "org.eclipse.jdt.core.prefs";
+    private static final String JDT_UI = "org.eclipse.jdt.ui.prefs";
+
+    @Test
+    public void tarRoundTrip() throws IOException
+    {
+        byte[] core = prefs("org.eclipse.jdt.core.formatter.lineSplit=120\n");
+        byte[] ui = new byte[512];
+        Arrays.fill(ui, (byte) 'x');
+        byte[] bundle = write(Bundle.Format.tar, new String[] {JDT_CORE, JDT_UI}, core, ui);
+
+        assertEquals(0, bundle.length % 512);
+        Map<String, byte[]> prefs = read(Bundle.Format.tar, bundle);
+        assertEquals(2, prefs.size());
+        assertArrayEquals(core, prefs.get(JDT_CORE));
+        assertArrayEquals(ui, prefs.get(JDT_UI));
+    }
+
+    @Test
+    public void tarNameOver100Bytes() throws IOException
+    {
+        String dir = "workspaces/" + repeat('w', 120);
+        byte[] core = prefs("eclipse.preferences.version=1\n");
+        byte[] bundle = write(Bundle.Format.tar, new String[] {dir + "/" + JDT_CORE}, core);
+
+        assertArrayEquals(core, read(Bundle.Format.tar, bundle).get(JDT_CORE));
+    }
+
+    @Test(expected = IOException.class)
+    public void tarNameTooLong() throws IOException
+    {
+        write(Bundle.Format.tar, new String[] {repeat('w', 200) + "/" + JDT_CORE}, new byte[0]);
+    }
+
+    @Test
+    public void tarEmptyEntry() throws IOException
+    {
+        byte[] bundle = write(Bundle.Format.tar, new String[] {JDT_CORE}, new byte[0]);
+
+        assertArrayEquals(new byte[0], read(Bundle.Format.tar, bundle).get(JDT_CORE));
+    }
+
+    @Test
+    public void zipRoundTrip() throws IOException
+    {
+        byte[] core = prefs("org.eclipse.jdt.core.formatter.tabulation.char=space\n");
+        byte[] bundle = write(Bundle.Format.zip, new String[] {"ws/" + JDT_CORE}, core);
+
+        assertArrayEquals(core, read(Bundle.Format.zip, bundle).get(JDT_CORE));
+    }
+
+    @Test
+    public void compressedEntryIsInflated() throws IOException
+    {
+        byte[] core = prefs("org.eclipse.jdt.core.compiler.source=1.8\n");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = PrefsCodec.compress(compressed))
+        {
+            out.write(core);
+        }
+        byte[] bundle = write(Bundle.Format.tar, new String[] {JDT_CORE + PrefsCodec.EXTENSION},
+            compressed.toByteArray());
+
+        assertArrayEquals(core, read(Bundle.Format.tar, bundle).get(JDT_CORE));
+    }
+
+    @Test
+    public void unselectedEntriesAreSkipped() throws IOException
+    {
+        byte[] bundle = write(Bundle.Format.tar, new String[] {JDT_UI}, prefs("a=b\n"));
+
+        Map<String, byte[]> prefs =
+            Bundle.read(Bundle.Format.tar, new ByteArrayInputStream(bundle), JDT_CORE::equals);
+        assertNull(prefs.get(JDT_UI));
+    }
+
+    @Test(expected = IOException.class)
+    public void duplicateEntriesAreRejected() throws IOException
+    {
+        byte[] core = prefs("a=b\n");
+        read(Bundle.Format.tar, write(Bundle.Format.tar,
+            new String[] {"a/" + JDT_CORE, "b/" + JDT_CORE}, core, core));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedTarIsRejected() throws IOException
+    {
+        byte[] bundle = write(Bundle.Format.tar, new String[] {JDT_CORE}, new byte[600]);
+        read(Bundle.Format.tar, Arrays.copyOf(bundle, 700));
+    }
+
+    private static byte[] write(Bundle.Format format, String[] names, byte[]... data)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Bundle bundle = Bundle.create(format, out))
+        {
+            for (int i = 0; i < names.length; i++)
+            {
+                bundle.add(names[i], data[i]);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, byte[]> read(Bundle.Format format, byte[] bundle)
+        throws IOException
+    {
+        return Bundle.read(format, new ByteArrayInputStream(bundle), name -> true);
+    }
+
+    private static byte[] prefs(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String repeat(char c, int n)
+    {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
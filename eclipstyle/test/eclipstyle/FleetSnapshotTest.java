@@ -0,0 +1,93 @@
+package eclipstyle;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FleetSnapshotTest
+{
+    private static final String JDT_CORE = "org.eclipse.jdt.core.prefs";
+    private static final String JDT_UI = "org.eclipse.jdt.ui.prefs";
+
+    @Test
+    public void keysArePerPrefsFile() throws IOException
+    {
+        FleetSnapshot.Builder builder = new FleetSnapshot.Builder(2);
+        builder.add(0, JDT_CORE, prefs("eclipse.preferences.version=1\nlineSplit=120\n"));
+        builder.add(0, JDT_UI, prefs("eclipse.preferences.version=1\n"));
+        builder.add(1, JDT_CORE, prefs("eclipse.preferences.version=1\nlineSplit=100\n"));
+
+        FleetSnapshot snapshot = write(builder, 2);
+        assertEquals(3, builder.getKeys());
+        assertEquals(2, snapshot.count(JDT_CORE + ":eclipse.preferences.version", "1", true));
+        assertEquals(1, snapshot.count(JDT_UI + ":eclipse.preferences.version", "1", true));
+        assertEquals(1, snapshot.count("lineSplit", "120", true));
+        assertEquals(1, snapshot.count("lineSplit", "120", false));
+    }
+
+    @Test(expected = IOException.class)
+    public void ambiguousKeyIsRejected() throws IOException
+    {
+        FleetSnapshot.Builder builder = new FleetSnapshot.Builder(1);
+        builder.add(0, JDT_CORE, prefs("eclipse.preferences.version=1\n"));
+        builder.add(0, JDT_UI, prefs("eclipse.preferences.version=1\n"));
+
+        write(builder, 1).count("eclipse.preferences.version", "1", true);
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownKeyIsRejected() throws IOException
+    {
+        FleetSnapshot.Builder builder = new FleetSnapshot.Builder(1);
+        builder.add(0, JDT_CORE, prefs("lineSplit=120\n"));
+
+        write(builder, 1).count("tabulation.char", "tab", true);
+    }
+
+    @Test
+    public void columnsWidenPastByteCodes() throws IOException
+    {
+        int rows = 70000;
+        FleetSnapshot.Builder builder = new FleetSnapshot.Builder(rows);
+        for (int row = 0; row < rows; row++)
+        {
+            builder.add(row, JDT_CORE, prefs("id=" + row + "\nshared=x\n"));
+        }
+
+        FleetSnapshot snapshot = write(builder, rows);
+        assertEquals(1, snapshot.count("id", "300", true));
+        assertEquals(1, snapshot.count("id", "69999", true));
+        assertEquals(rows, snapshot.count("shared", "x", true));
+        List<Integer> found = new ArrayList<>();
+        snapshot.select("id", "65536", true, found::add);
+        assertEquals(1, found.size());
+        assertEquals("/ws/65536", snapshot.getWorkspace(found.get(0)));
+    }
+
+    private static FleetSnapshot write(FleetSnapshot.Builder builder, int rows)
+        throws IOException
+    {
+        List<Path> workspaces = new ArrayList<>();
+        for (int row = 0; row < rows; row++)
+        {
+            workspaces.add(Paths.get("/ws/" + row));
+        }
+        Path file = Files.createTempFile("fleet", ".snapshot");
+        file.toFile().deleteOnExit();
+        builder.write(file, workspaces);
+        return FleetSnapshot.open(file);
+    }
+
+    private static byte[] prefs(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
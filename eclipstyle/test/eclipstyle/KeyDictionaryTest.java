@@ -0,0 +1,112 @@
+package eclipstyle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class KeyDictionaryTest
+{
+    @Test
+    public void internAssignsIdsInOrder()
+    {
+        KeyDictionary keys = new KeyDictionary();
+
+        assertEquals(0, keys.intern("a"));
+        assertEquals(1, keys.intern("b"));
+        assertEquals(0, keys.intern("a"));
+        assertEquals(2, keys.size());
+        assertEquals("b", keys.get(1));
+        assertEquals(-1, keys.find("c"));
+    }
+
+    @Test
+    public void internFromBuffer()
+    {
+        KeyDictionary keys = new KeyDictionary();
+        byte[] buf = "xxlineSplit=100".getBytes(StandardCharsets.ISO_8859_1);
+
+        int id = keys.intern(buf, 2, "lineSplit".length());
+        assertEquals(id, keys.intern("lineSplit"));
+        assertEquals(id, keys.find("lineSplit"));
+        assertEquals(-1, keys.find("lineSplit="));
+    }
+
+    @Test
+    public void growsPastInitialCapacity()
+    {
+        KeyDictionary keys = new KeyDictionary();
+        for (int i = 0; i < 10000; i++)
+        {
+            assertEquals(i, keys.intern("key." + i));
+        }
+        for (int i = 0; i < 10000; i++)
+        {
+            assertEquals(i, keys.find("key." + i));
+            assertEquals("key." + i, keys.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentInternIsConsistent() throws Exception
+    {
+        KeyDictionary keys = new KeyDictionary();
+        int threads = 8;
+        int count = 20000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            int offset = t * 977;
+            Callable<int[]> task = () -> {
+                int[] ids = new int[count];
+                for (int i = 0; i < count; i++)
+                {
+                    int k = (i + offset) % count;
+                    ids[k] = keys.intern("key." + k);
+                }
+                return ids;
+            };
+            results.add(pool.submit(task));
+        }
+        pool.shutdown();
+
+        int[] first = results.get(0).get();
+        for (Future<int[]> result : results)
+        {
+            assertArrayEquals(first, result.get());
+        }
+        assertEquals(count, keys.size());
+        for (int i = 0; i < count; i++)
+        {
+            assertEquals("key." + i, keys.get(first[i]));
+        }
+    }
+
+    @Test
+    public void parseIds()
+    {
+        KeyDictionary keys = new KeyDictionary();
+        KeyDictionary values = new KeyDictionary();
+        byte[] data = ("#comment\r\neclipse.preferences.version=1\r\n"
+            + "path = C\\:\\\\a \\\r\n  b\r\nempty=\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        int[] ids = PrefsFile.parseIds(data, keys, values);
+        assertEquals(6, ids.length);
+        assertEquals("eclipse.preferences.version", keys.get(ids[0]));
+        assertEquals("1", values.get(ids[1]));
+        assertEquals("path", keys.get(ids[2]));
+        assertEquals("C\\:\\\\a \\\r\n  b", values.get(ids[3]));
+        assertEquals("empty", keys.get(ids[4]));
+        assertEquals("", values.get(ids[5]));
+        assertArrayEquals(ids, PrefsFile.parseIds(data, keys, values));
+    }
+}
@@ -0,0 +1,68 @@
+package eclipstyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class RetryTest
+{
+    @Test
+    public void transientErrorsAreRetryable()
+    {
+        assertTrue(Retry.isRetryable(new FileSystemException("/ws", null, "Stale file handle")));
+        assertTrue(Retry.isRetryable(new IOException("Stale file handle")));
+        assertTrue(Retry.isRetryable(new SocketTimeoutException("Read timed out")));
+    }
+
+    @Test
+    public void permanentErrorsAreNotRetryable()
+    {
+        assertFalse(Retry.isRetryable(new NoSuchFileException("/ws")));
+        assertFalse(Retry.isRetryable(
+            new FileSystemException("/ws", null, "No space left on device")));
+        assertFalse(Retry.isRetryable(new IOException("Not a compressed preferences stream")));
+        assertFalse(Retry.isRetryable(new ZipException("invalid entry size")));
+    }
+
+    @Test
+    public void formatErrorsFailRightAway()
+    {
+        Retry retry = new Retry(3, 10);
+        try
+        {
+            retry.run(() -> {
+                throw new IOException("Not a compressed preferences stream");
+            });
+            fail("expected an IOException");
+        }
+        catch (IOException e)
+        {
+            assertEquals(0, retry.getRetries());
+        }
+    }
+
+    @Test
+    public void transientErrorsAreRetried() throws IOException
+    {
+        Retry retry = new Retry(3, 10);
+        int[] calls = new int[1];
+
+        assertEquals("ok", retry.call(() -> {
+            if (++calls[0] < 2)
+            {
+                throw new IOException("Stale file handle");
+            }
+            return "ok";
+        }));
+        assertEquals(1, retry.getRetries());
+    }
+}
@@ -0,0 +1,114 @@
+package eclipstyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class WorkspaceRegistryTest
+{
+    @Test
+    public void iteratesSortedWithoutDuplicates()
+    {
+        WorkspaceRegistry registry = new WorkspaceRegistry.Builder()
+            .add(Paths.get("/ws/b"))
+            .add(Paths.get("/ws/a2"))
+            .add(Paths.get("/ws/a"))
+            .add(Paths.get("/ws/b"))
+            .add(Paths.get("/ws/a10"))
+            .add(Paths.get("/ws/a"))
+            .build();
+
+        assertEquals(4, registry.size());
+        assertEquals(paths("/ws/a", "/ws/a10", "/ws/a2", "/ws/b"), list(registry));
+    }
+
+    @Test
+    public void sharedPrefixesAndLongPaths()
+    {
+        StringBuilder deep = new StringBuilder("/ws");
+        for (int i = 0; i < 40; i++)
+        {
+            deep.append("/segment").append(i);
+        }
+        List<Path> expected = paths("/ws", deep.toString(), deep + "/x", "/wt/x");
+        WorkspaceRegistry.Builder builder = new WorkspaceRegistry.Builder();
+        for (int i = expected.size() - 1; i >= 0; i--)
+        {
+            builder.add(expected.get(i));
+        }
+
+        assertEquals(expected, list(builder.build()));
+    }
+
+    @Test
+    public void emptyRegistry()
+    {
+        WorkspaceRegistry registry = new WorkspaceRegistry.Builder().build();
+
+        assertTrue(registry.isEmpty());
+        assertFalse(registry.iterator().hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iteratorEnds()
+    {
+        Iterator<Path> it = new WorkspaceRegistry.Builder().add(Paths.get("/ws/a")).build()
+            .iterator();
+        it.next();
+        it.next();
+    }
+
+    @Test
+    public void concurrentAdds() throws InterruptedException
+    {
+        WorkspaceRegistry.Builder builder = new WorkspaceRegistry.Builder();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++)
+        {
+            pool.execute(() -> {
+                for (int i = 0; i < 1000; i++)
+                {
+                    builder.add(Paths.get("/ws/w" + i));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        List<Path> workspaces = list(builder.build());
+        assertEquals(1000, workspaces.size());
+        List<Path> sorted = new ArrayList<>(workspaces);
+        sorted.sort((a, b) -> a.toString().compareTo(b.toString()));
+        assertEquals(sorted, workspaces);
+    }
+
+    private static List<Path> paths(String... paths)
+    {
+        List<Path> list = new ArrayList<>();
+        for (String path : Arrays.asList(paths))
+        {
+            list.add(Paths.get(path));
+        }
+        return list;
+    }
+
+    private static List<Path> list(WorkspaceRegistry registry)
+    {
+        List<Path> list = new ArrayList<>();
+        registry.forEach(list::add);
+        return list;
+    }
+}